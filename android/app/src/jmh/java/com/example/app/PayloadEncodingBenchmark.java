@@ -0,0 +1,114 @@
+package com.example.app;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Upload payload encoding: the reused {@link FixJsonEncoder} /
+ * {@link GzipCompressor} path against the String.format / SimpleDateFormat /
+ * getBytes / GZIPOutputStream code it replaced, for one fix and for a
+ * 50-fix batch.
+ *
+ * Run with the GC profiler to get allocation per op next to ns per op:
+ * {@code java -jar benchmarks.jar PayloadEncodingBenchmark -prof gc}
+ * and compare {@code gc.alloc.rate.norm} between the legacy and current
+ * benchmarks.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PayloadEncodingBenchmark {
+    private static final int BATCH = 50;
+
+    private final FixJsonEncoder encoder = new FixJsonEncoder();
+    private final GzipCompressor gzipCompressor = new GzipCompressor();
+    private final PayloadBuffer payload = new PayloadBuffer(1024);
+    private final PayloadBuffer compressed = new PayloadBuffer(512);
+    private LocationFix fix;
+    private List<LocationFix> batch;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        batch = new ArrayList<>(BATCH);
+        long time = 1700000000000L;
+        for (int i = 0; i < BATCH; i++) {
+            time += 60000 + random.nextInt(1000);
+            batch.add(new LocationFix(time, 52.52 + random.nextGaussian() * 0.01,
+                13.40 + random.nextGaussian() * 0.01, 5f, 1f, 90f, "gps"));
+        }
+        fix = batch.get(0);
+    }
+
+    @Benchmark
+    public byte[] legacySingleFix() throws UnsupportedEncodingException {
+        return legacyJson(fix).getBytes("UTF-8");
+    }
+
+    @Benchmark
+    public int currentSingleFix() {
+        payload.reset();
+        encoder.writeFix(fix, payload);
+        return payload.length();
+    }
+
+    @Benchmark
+    public byte[] legacyBatchGzip() throws IOException {
+        StringBuilder sb = new StringBuilder(batch.size() * 80 + 2);
+        sb.append('[');
+        for (int i = 0; i < batch.size(); i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(legacyJson(batch.get(i)));
+        }
+        sb.append(']');
+        byte[] data = sb.toString().getBytes("UTF-8");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length / 2 + 32);
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(data);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    public int currentBatchGzip() {
+        payload.reset();
+        encoder.writeArray(batch, payload);
+        gzipCompressor.compress(payload, compressed);
+        return compressed.length();
+    }
+
+    // The per-fix encoding the uploader used before FixJsonEncoder
+    private static String legacyJson(LocationFix fix) {
+        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+        sdf.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return String.format(Locale.US,
+            "{\"latitude\":%f,\"longitude\":%f,\"timestamp\":\"%s\"}",
+            fix.latitude, fix.longitude, sdf.format(new Date(fix.time)));
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.app;
+
+/**
+ * Picks the delay until the next location cycle from recent movement.
+ *
+ * While moving, the interval is sized so the device covers roughly
+ * {@code distanceTargetMeters} between fixes. While stationary it doubles
+ * each cycle up to {@code maxIntervalMs}. A motion signal drops it straight
+ * back to {@code minIntervalMs}.
+ */
+public class AdaptiveInterval {
+    // Below this speed, and without covering the distance target, the device counts as parked
+    private static final float STATIONARY_SPEED_MPS = 0.5f;
+
+    private final long minIntervalMs;
+    private final long maxIntervalMs;
+    private final float distanceTargetMeters;
+
+    private long intervalMs;
+    private boolean stationary = false;
+    private LocationFix previous;
+
+    public AdaptiveInterval(long minIntervalMs, long maxIntervalMs, float distanceTargetMeters) {
+        this.minIntervalMs = Math.max(1000, minIntervalMs);
+        this.maxIntervalMs = Math.max(this.minIntervalMs, maxIntervalMs);
+        this.distanceTargetMeters = Math.max(1f, distanceTargetMeters);
+        this.intervalMs = this.minIntervalMs;
+    }
+
+    public synchronized long nextIntervalMs() {
+        return intervalMs;
+    }
+
+    /** Whether the last classified fix found the device parked, not merely slow enough to stretch the interval. */
+    public synchronized boolean isStationary() {
+        return stationary;
+    }
+
+    public synchronized long minIntervalMs() {
+        return minIntervalMs;
+    }
+
+    /** Updates the interval from a fresh fix and returns the new value. */
+    public synchronized long onFix(LocationFix fix) {
+        float displacement = 0f;
+        float speed = fix.speed;
+        if (previous != null) {
+            displacement = (float) distanceMeters(previous, fix);
+            long dtMs = fix.time - previous.time;
+            if (speed < 0 && dtMs > 0) {
+                speed = displacement * 1000f / dtMs;
+            }
+        }
+        previous = fix;
+
+        if (speed < 0) {
+            return intervalMs; // first fix without speed - nothing to go on yet
+        }
+
+        stationary = speed < STATIONARY_SPEED_MPS && displacement < distanceTargetMeters;
+        if (stationary) {
+            intervalMs = Math.min(maxIntervalMs, intervalMs * 2);
+        } else {
+            long target = (long) (distanceTargetMeters / Math.max(speed, STATIONARY_SPEED_MPS) * 1000f);
+            intervalMs = clamp(target);
+        }
+        return intervalMs;
+    }
+
+    /** Called on a significant-motion or activity signal while parked. */
+    public synchronized void onMotion() {
+        intervalMs = minIntervalMs;
+        stationary = false;
+    }
+
+    private long clamp(long value) {
+        return Math.max(minIntervalMs, Math.min(maxIntervalMs, value));
+    }
+
+    // Equirectangular approximation; plenty for the few km between fixes
+    static double distanceMeters(LocationFix a, LocationFix b) {
+        return distanceMeters(a.latitude, a.longitude, b.latitude, b.longitude);
+    }
+
+    static double distanceMeters(double lat1, double lon1, double lat2, double lon2) {
+        double lat = Math.toRadians((lat1 + lat2) / 2);
+        double dx = Math.toRadians(lon2 - lon1) * Math.cos(lat);
+        double dy = Math.toRadians(lat2 - lat1);
+        return Math.sqrt(dx * dx + dy * dy) * 6_371_000d;
+    }
+}
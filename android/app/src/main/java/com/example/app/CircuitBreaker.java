@@ -0,0 +1,67 @@
+package com.example.app;
+
+/**
+ * Stops upload attempts against an endpoint that keeps failing.
+ *
+ * After {@code failureThreshold} consecutive failures the breaker opens and
+ * refuses requests for {@code openMs}. It then lets a single probe through
+ * (half-open): success closes it, failure re-opens it for twice as long, up
+ * to {@code maxOpenMs}.
+ */
+public class CircuitBreaker {
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int failureThreshold;
+    private final long baseOpenMs;
+    private final long maxOpenMs;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    private long openMs;
+    private long openUntil = 0;
+
+    public CircuitBreaker(int failureThreshold, long openMs, long maxOpenMs) {
+        this.failureThreshold = failureThreshold;
+        this.baseOpenMs = openMs;
+        this.maxOpenMs = maxOpenMs;
+        this.openMs = openMs;
+    }
+
+    /** True if a request may go out now; moves OPEN to HALF_OPEN once the cool-down is over. */
+    public synchronized boolean allowRequest(long now) {
+        if (state == State.OPEN && now >= openUntil) {
+            state = State.HALF_OPEN;
+        }
+        return state != State.OPEN;
+    }
+
+    /** Milliseconds until the breaker will let a probe through, 0 if it already would. */
+    public synchronized long remainingOpenMs(long now) {
+        return state == State.OPEN ? Math.max(0, openUntil - now) : 0;
+    }
+
+    public synchronized void onSuccess() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        openMs = baseOpenMs;
+    }
+
+    public synchronized void onFailure(long now) {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN) {
+            openMs = Math.min(maxOpenMs, openMs * 2);
+            open(now);
+        } else if (consecutiveFailures >= failureThreshold) {
+            open(now);
+        }
+    }
+
+    public synchronized State state() {
+        return state;
+    }
+
+    private void open(long now) {
+        state = State.OPEN;
+        openUntil = now + openMs;
+    }
+}
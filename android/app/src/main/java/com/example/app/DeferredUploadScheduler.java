@@ -0,0 +1,87 @@
+package com.example.app;
+
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.os.Build;
+import android.util.Log;
+
+/**
+ * Tells the {@link UploadPipeline} when sending is cheap, and wakes it when
+ * that changes.
+ *
+ * Sending counts as cheap on an unmetered network, or when the cellular
+ * radio is already up for someone else, so the upload rides on an existing
+ * radio tail instead of paying for its own. While deferred, the pipeline
+ * is woken by whichever comes first: the radio going active, an
+ * unmetered-network JobScheduler job, or that job's deadline, which keeps
+ * the configured maximum delivery latency.
+ */
+public class DeferredUploadScheduler implements UploadPipeline.DeliveryGate {
+    private static final String TAG = "DeferredUpload";
+    static final int JOB_ID = 4201;
+
+    private final Context context;
+    private final ConnectivityManager connectivityManager;
+    private final JobScheduler jobScheduler;
+    private final Runnable onCheapNetwork;
+    private final ConnectivityManager.OnNetworkActiveListener radioListener;
+    private boolean listening = false;
+
+    public DeferredUploadScheduler(Context context, Runnable onCheapNetwork) {
+        this.context = context.getApplicationContext();
+        this.connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        this.jobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        this.onCheapNetwork = onCheapNetwork;
+        this.radioListener = () -> {
+            Log.d(TAG, "Radio became active - flushing deferred uploads");
+            onCheapNetwork.run();
+        };
+    }
+
+    @Override
+    public boolean isCheapToSend() {
+        if (connectivityManager == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            return true;
+        }
+        Network network = connectivityManager.getActiveNetwork();
+        NetworkCapabilities caps = network != null ? connectivityManager.getNetworkCapabilities(network) : null;
+        if (caps == null) {
+            return false; // offline - nothing to gain by trying
+        }
+        return caps.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED)
+            || connectivityManager.isDefaultNetworkActive();
+    }
+
+    @Override
+    public synchronized void defer(long maxDelayMs) {
+        if (!listening && connectivityManager != null) {
+            connectivityManager.addDefaultNetworkActiveListener(radioListener);
+            listening = true;
+        }
+
+        if (jobScheduler != null) {
+            JobInfo job = new JobInfo.Builder(JOB_ID, new ComponentName(context, UploadJobService.class))
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED)
+                .setOverrideDeadline(Math.max(0, maxDelayMs))
+                .build();
+            jobScheduler.schedule(job);
+        }
+        Log.d(TAG, "Upload deferred for up to " + maxDelayMs + "ms");
+    }
+
+    @Override
+    public synchronized void cancel() {
+        if (listening) {
+            connectivityManager.removeDefaultNetworkActiveListener(radioListener);
+            listening = false;
+        }
+        if (jobScheduler != null) {
+            jobScheduler.cancel(JOB_ID);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.example.app;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Picks which of several ingest endpoints an upload goes to.
+ *
+ * Every endpoint has its own {@link CircuitBreaker} and a moving average of
+ * its upload latency. In {@link Mode#ORDERED} mode the first endpoint whose
+ * breaker allows a request is used, so traffic returns to the primary as
+ * soon as its breaker lets a probe through and that probe succeeds; the
+ * probe is the next real batch, not an extra health-check request. In
+ * {@link Mode#LATENCY} mode the endpoint with the lowest latency divided by
+ * weight wins, and every {@link #EXPLORE_EVERY}th choice goes to the least
+ * recently used one so a recovered endpoint gets measured again.
+ *
+ * Breakers here trip fast and reopen early: with another endpoint to go to,
+ * a failure costs one request, not the whole queue's delivery.
+ */
+public class EndpointSelector {
+    public enum Mode { ORDERED, LATENCY }
+
+    private static final int FAILURE_THRESHOLD = 2;
+    private static final long OPEN_MS = 5 * 1000;
+    private static final long MAX_OPEN_MS = 60 * 1000;
+    private static final double LATENCY_ALPHA = 0.5;
+    static final int EXPLORE_EVERY = 10;
+
+    public static final class Endpoint {
+        public final String url;
+        final double weight;
+        final CircuitBreaker breaker = new CircuitBreaker(FAILURE_THRESHOLD, OPEN_MS, MAX_OPEN_MS);
+        double latencyMs = 0;     // 0 until measured, so new endpoints are tried early
+        long lastUsedAt = 0;
+        boolean failing = false;
+
+        Endpoint(String url, double weight) {
+            this.url = url;
+            this.weight = weight > 0 ? weight : 1;
+        }
+    }
+
+    private final List<Endpoint> endpoints;
+    private final Mode mode;
+    private int choices = 0;
+
+    public EndpointSelector(List<Endpoint> endpoints, Mode mode) {
+        this.endpoints = Collections.unmodifiableList(new ArrayList<>(endpoints));
+        this.mode = mode;
+    }
+
+    /**
+     * Parses one endpoint per line, each a URL optionally followed by a space
+     * and a weight. Returns null if there is no endpoint.
+     */
+    public static EndpointSelector parse(String spec, Mode mode) {
+        List<Endpoint> endpoints = new ArrayList<>();
+        for (String line : spec.split("\n")) {
+            String[] parts = line.trim().split("\\s+");
+            if (parts[0].isEmpty()) {
+                continue;
+            }
+            double weight = 1;
+            if (parts.length > 1) {
+                try {
+                    weight = Double.parseDouble(parts[1]);
+                } catch (NumberFormatException e) {
+                    // Keep the default weight
+                }
+            }
+            endpoints.add(new Endpoint(parts[0], weight));
+        }
+        return endpoints.isEmpty() ? null : new EndpointSelector(endpoints, mode);
+    }
+
+    public List<Endpoint> endpoints() {
+        return endpoints;
+    }
+
+    /** The endpoint for the next upload, or null if every breaker is open. */
+    public synchronized Endpoint choose(long now) {
+        return choose(now, Collections.<Endpoint>emptySet());
+    }
+
+    /** The best endpoint not in {@code excluded}, for failover or a hedged request; null if none. */
+    public synchronized Endpoint alternative(Collection<Endpoint> excluded, long now) {
+        return choose(now, excluded);
+    }
+
+    /** Milliseconds until some endpoint will accept a request again. */
+    public synchronized long remainingOpenMs(long now) {
+        long remaining = Long.MAX_VALUE;
+        for (Endpoint endpoint : endpoints) {
+            remaining = Math.min(remaining, endpoint.breaker.remainingOpenMs(now));
+        }
+        return remaining;
+    }
+
+    public synchronized void onSuccess(Endpoint endpoint, long latencyMs, long now) {
+        endpoint.breaker.onSuccess();
+        // Starting over after failures, so a recovered endpoint competes on what it does now
+        endpoint.latencyMs = endpoint.latencyMs == 0 || endpoint.failing
+            ? latencyMs
+            : endpoint.latencyMs + LATENCY_ALPHA * (latencyMs - endpoint.latencyMs);
+        endpoint.failing = false;
+        endpoint.lastUsedAt = now;
+    }
+
+    public synchronized void onFailure(Endpoint endpoint, long latencyMs, long now) {
+        endpoint.breaker.onFailure(now);
+        // A failure counts as at least as slow as it took, so latency mode moves away from it
+        endpoint.latencyMs = Math.max(endpoint.latencyMs, latencyMs);
+        endpoint.lastUsedAt = now;
+        endpoint.failing = true;
+    }
+
+    public synchronized String describe() {
+        StringBuilder sb = new StringBuilder();
+        for (Endpoint endpoint : endpoints) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(endpoint.url).append(' ').append(endpoint.breaker.state())
+                .append(' ').append(Math.round(endpoint.latencyMs)).append("ms");
+        }
+        return sb.toString();
+    }
+
+    private Endpoint choose(long now, Collection<Endpoint> excluded) {
+        List<Endpoint> allowed = new ArrayList<>(endpoints.size());
+        for (Endpoint endpoint : endpoints) {
+            if (!excluded.contains(endpoint) && endpoint.breaker.allowRequest(now)) {
+                allowed.add(endpoint);
+            }
+        }
+        if (allowed.isEmpty()) {
+            return null;
+        }
+        if (mode == Mode.ORDERED) {
+            return allowed.get(0);
+        }
+
+        if (excluded.isEmpty() && allowed.size() > 1 && ++choices % EXPLORE_EVERY == 0) {
+            Endpoint stalest = allowed.get(0);
+            for (Endpoint endpoint : allowed) {
+                if (endpoint.lastUsedAt < stalest.lastUsedAt) {
+                    stalest = endpoint;
+                }
+            }
+            return stalest;
+        }
+        Endpoint best = allowed.get(0);
+        for (Endpoint endpoint : allowed) {
+            if (endpoint.latencyMs / endpoint.weight < best.latencyMs / best.weight) {
+                best = endpoint;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.app;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Turns the service's fixes into location events for the web layer without
+ * flooding the bridge.
+ *
+ * At most one event goes out per {@code throttleMs}; fixes arriving in
+ * between are coalesced into the next event (up to {@code maxBatch}, oldest
+ * dropped first). While the WebView is paused nothing is sent, and on
+ * resume a single event with the newest fix brings the UI up to date.
+ */
+public class FixEventDispatcher {
+    public interface Sink {
+        /** Called on the main thread with fixes oldest first; {@code dropped} were coalesced away. */
+        void emit(List<LocationFix> fixes, int dropped);
+    }
+
+    private final Sink sink;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable flush = this::flush;
+    private final TrackingMetrics metrics = TrackingMetrics.get();
+
+    private long throttleMs = 1000;
+    private int maxBatch = 50;
+    private final List<LocationFix> pending = new ArrayList<>();
+    private int dropped = 0;
+    private boolean flushScheduled = false;
+    private long lastEmitAt = 0;
+    private boolean paused = false;
+    private LocationFix latestWhilePaused;
+
+    public FixEventDispatcher(Sink sink) {
+        this.sink = sink;
+    }
+
+    public synchronized void setOptions(long throttleMs, int maxBatch) {
+        this.throttleMs = Math.max(0, throttleMs);
+        this.maxBatch = Math.max(1, maxBatch);
+    }
+
+    /** Any thread. */
+    public synchronized void offer(LocationFix fix) {
+        if (paused) {
+            latestWhilePaused = fix;
+            metrics.increment(TrackingMetrics.EVENTS_SUPPRESSED);
+            return;
+        }
+
+        pending.add(fix);
+        if (pending.size() > maxBatch) {
+            pending.remove(0);
+            dropped++;
+        }
+        if (!flushScheduled) {
+            flushScheduled = true;
+            long waitMs = Math.max(0, lastEmitAt + throttleMs - SystemClock.elapsedRealtime());
+            handler.postDelayed(flush, waitMs);
+        }
+    }
+
+    public synchronized void pause() {
+        paused = true;
+        handler.removeCallbacks(flush);
+        flushScheduled = false;
+        if (!pending.isEmpty()) {
+            latestWhilePaused = pending.get(pending.size() - 1);
+            metrics.add(TrackingMetrics.EVENTS_SUPPRESSED, pending.size());
+            pending.clear();
+        }
+        dropped = 0;
+    }
+
+    public void resume() {
+        LocationFix latest;
+        synchronized (this) {
+            paused = false;
+            latest = latestWhilePaused;
+            latestWhilePaused = null;
+        }
+        if (latest != null) {
+            offer(latest);
+        }
+    }
+
+    private void flush() {
+        List<LocationFix> fixes;
+        int droppedFixes;
+        synchronized (this) {
+            flushScheduled = false;
+            if (paused || pending.isEmpty()) {
+                return;
+            }
+            fixes = new ArrayList<>(pending);
+            droppedFixes = dropped;
+            pending.clear();
+            dropped = 0;
+            lastEmitAt = SystemClock.elapsedRealtime();
+        }
+        metrics.increment(TrackingMetrics.EVENTS_EMITTED);
+        sink.emit(fixes, droppedFixes);
+    }
+}
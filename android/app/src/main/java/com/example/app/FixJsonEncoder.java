@@ -0,0 +1,154 @@
+package com.example.app;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Writes fixes as JSON straight into a {@link PayloadBuffer}.
+ *
+ * Produces the same {"latitude","longitude","timestamp"} objects as the
+ * original String.format/SimpleDateFormat code (six decimal places, UTC
+ * ISO-8601 with milliseconds) but formats numbers and dates by hand, so
+ * encoding a fix creates no garbage once the buffer has grown to size.
+ * A fix carrying a {@link TripRecord} gets an extra "trip" object.
+ */
+public final class FixJsonEncoder {
+    private static final String LATITUDE = "{\"latitude\":";
+    private static final String LONGITUDE = ",\"longitude\":";
+    private static final String TIMESTAMP = ",\"timestamp\":\"";
+    private static final String END = "\"}";
+    private static final String TRIP = "\",\"trip\":{\"event\":\"";
+
+    private static final long MS_PER_DAY = 86_400_000L;
+
+    public void writeArray(List<LocationFix> fixes, PayloadBuffer out) {
+        out.write('[');
+        for (int i = 0; i < fixes.size(); i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            writeFix(fixes.get(i), out);
+        }
+        out.write(']');
+    }
+
+    public void writeFix(LocationFix fix, PayloadBuffer out) {
+        out.writeAscii(LATITUDE);
+        writeDegrees(fix.latitude, out);
+        out.writeAscii(LONGITUDE);
+        writeDegrees(fix.longitude, out);
+        out.writeAscii(TIMESTAMP);
+        writeTimestamp(fix.time, out);
+        if (fix.trip != null) {
+            out.writeAscii(TRIP);
+            writeTrip(fix.trip, out);
+            out.writeAscii("}}");
+        } else {
+            out.writeAscii(END);
+        }
+    }
+
+    // The trip object's members after "event":", without the closing brace
+    private static void writeTrip(TripRecord trip, PayloadBuffer out) {
+        out.writeAscii(trip.event.name().toLowerCase(Locale.US));
+        out.writeAscii("\",\"id\":");
+        writeLong(trip.id, out);
+        out.writeAscii(",\"time\":\"");
+        writeTimestamp(trip.time, out);
+        out.writeAscii("\",\"latitude\":");
+        writeDegrees(trip.latitude, out);
+        out.writeAscii(",\"longitude\":");
+        writeDegrees(trip.longitude, out);
+        if (trip.event == TripRecord.Event.START) {
+            return;
+        }
+        out.writeAscii(",\"distanceMeters\":");
+        writeLong(Math.round(trip.distanceMeters), out);
+        out.writeAscii(",\"durationSeconds\":");
+        writeLong(trip.durationMs / 1000, out);
+        out.writeAscii(",\"maxSpeedMps\":");
+        writeTenths(trip.maxSpeedMps, out);
+        out.writeAscii(",\"avgSpeedMps\":");
+        writeTenths(trip.avgSpeedMps(), out);
+        out.writeAscii(",\"bounds\":[");
+        writeDegrees(trip.minLatitude, out);
+        out.write(',');
+        writeDegrees(trip.minLongitude, out);
+        out.write(',');
+        writeDegrees(trip.maxLatitude, out);
+        out.write(',');
+        writeDegrees(trip.maxLongitude, out);
+        out.writeAscii("],\"fixes\":");
+        writeLong(trip.fixes, out);
+    }
+
+    private static void writeTenths(float value, PayloadBuffer out) {
+        long tenths = Math.max(0, Math.round(value * 10d));
+        writeLong(tenths / 10, out);
+        out.write('.');
+        writePadded(tenths % 10, 1, out);
+    }
+
+    // Same output as "%f": six fractional digits
+    static void writeDegrees(double value, PayloadBuffer out) {
+        long micros = Math.round(value * 1_000_000d);
+        if (micros < 0) {
+            out.write('-');
+            micros = -micros;
+        }
+        writeLong(micros / 1_000_000, out);
+        out.write('.');
+        writePadded(micros % 1_000_000, 6, out);
+    }
+
+    // yyyy-MM-dd'T'HH:mm:ss.SSS'Z' in UTC
+    static void writeTimestamp(long epochMs, PayloadBuffer out) {
+        long days = Math.floorDiv(epochMs, MS_PER_DAY);
+        long msOfDay = Math.floorMod(epochMs, MS_PER_DAY);
+
+        // Civil date from days since 1970-01-01 (Howard Hinnant's algorithm)
+        long z = days + 719468;
+        long era = Math.floorDiv(z, 146097);
+        long doe = z - era * 146097;
+        long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        long day = doy - (153 * mp + 2) / 5 + 1;
+        long month = mp < 10 ? mp + 3 : mp - 9;
+        long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+
+        writePadded(year, 4, out);
+        out.write('-');
+        writePadded(month, 2, out);
+        out.write('-');
+        writePadded(day, 2, out);
+        out.write('T');
+        writePadded(msOfDay / 3_600_000, 2, out);
+        out.write(':');
+        writePadded((msOfDay / 60_000) % 60, 2, out);
+        out.write(':');
+        writePadded((msOfDay / 1000) % 60, 2, out);
+        out.write('.');
+        writePadded(msOfDay % 1000, 3, out);
+        out.write('Z');
+    }
+
+    static void writeLong(long value, PayloadBuffer out) {
+        int digits = 1;
+        for (long v = value / 10; v > 0; v /= 10) {
+            digits++;
+        }
+        writePadded(value, digits, out);
+    }
+
+    static void writePadded(long value, int width, PayloadBuffer out) {
+        out.ensureCapacity(out.length() + width);
+        byte[] buf = out.array();
+        int end = out.length() + width;
+        for (int i = end - 1; i >= out.length(); i--) {
+            buf[i] = (byte) ('0' + (value % 10));
+            value /= 10;
+        }
+        out.advance(width);
+    }
+}
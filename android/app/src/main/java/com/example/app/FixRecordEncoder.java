@@ -0,0 +1,92 @@
+package com.example.app;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes a fix as its outbox record straight into a {@link PayloadBuffer}.
+ *
+ * The record is the comma-separated line {@link LocationFix#fromRecord}
+ * reads: time,lat,lon,accuracy,speed,bearing,provider and, for a fix
+ * carrying one, the {@link TripRecord} as a semicolon-separated last field.
+ * Numbers are formatted by hand as in {@link FixJsonEncoder}, with seven
+ * decimals for degrees and one for the rest, so appending a fix to the
+ * outbox creates no garbage once the buffer has grown to size.
+ */
+public final class FixRecordEncoder {
+
+    public void write(LocationFix fix, PayloadBuffer out) {
+        FixJsonEncoder.writeLong(fix.time, out);
+        out.write(',');
+        writeDecimal(fix.latitude, 7, out);
+        out.write(',');
+        writeDecimal(fix.longitude, 7, out);
+        out.write(',');
+        writeDecimal(fix.accuracy, 1, out);
+        out.write(',');
+        writeDecimal(fix.speed, 1, out);
+        out.write(',');
+        writeDecimal(fix.bearing, 1, out);
+        out.write(',');
+        writeText(fix.provider, out);
+        if (fix.trip != null) {
+            out.write(',');
+            writeTrip(fix.trip, out);
+        }
+    }
+
+    private static void writeTrip(TripRecord trip, PayloadBuffer out) {
+        out.writeAscii(trip.event.name());
+        out.write(';');
+        FixJsonEncoder.writeLong(trip.id, out);
+        out.write(';');
+        FixJsonEncoder.writeLong(trip.time, out);
+        out.write(';');
+        writeDecimal(trip.latitude, 7, out);
+        out.write(';');
+        writeDecimal(trip.longitude, 7, out);
+        out.write(';');
+        writeDecimal(trip.distanceMeters, 1, out);
+        out.write(';');
+        FixJsonEncoder.writeLong(trip.durationMs, out);
+        out.write(';');
+        writeDecimal(trip.maxSpeedMps, 1, out);
+        out.write(';');
+        writeDecimal(trip.minLatitude, 7, out);
+        out.write(';');
+        writeDecimal(trip.minLongitude, 7, out);
+        out.write(';');
+        writeDecimal(trip.maxLatitude, 7, out);
+        out.write(';');
+        writeDecimal(trip.maxLongitude, 7, out);
+        out.write(';');
+        FixJsonEncoder.writeLong(trip.fixes, out);
+    }
+
+    // Same digits as "%.{decimals}f" up to rounding in the last place; missing values are -1
+    private static void writeDecimal(double value, int decimals, PayloadBuffer out) {
+        long scale = 1;
+        for (int i = 0; i < decimals; i++) {
+            scale *= 10;
+        }
+        long scaled = Math.round(value * scale);
+        if (scaled < 0) {
+            out.write('-');
+            scaled = -scaled;
+        }
+        FixJsonEncoder.writeLong(scaled / scale, out);
+        out.write('.');
+        FixJsonEncoder.writePadded(scaled % scale, decimals, out);
+    }
+
+    // Provider names are ASCII in practice; anything else still round-trips as UTF-8
+    private static void writeText(String text, PayloadBuffer out) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) >= 0x80) {
+                byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+                out.write(bytes, 0, bytes.length);
+                return;
+            }
+        }
+        out.writeAscii(text);
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.app;
+
+import android.location.Location;
+import android.location.LocationManager;
+import android.os.SystemClock;
+
+/**
+ * Picks the best fix a cycle has seen instead of the first one to arrive.
+ *
+ * Candidates from any provider are scored by accuracy, with a penalty for
+ * age and for non-GPS providers, so a 1-2 km network fix does not beat a
+ * GPS fix that lands a second later. The caller closes the window after a
+ * short bounded time, or as soon as {@link #isSatisfied()} reports a fix
+ * that already meets the accuracy target.
+ */
+public class FixSelector {
+    // Metres of accuracy a fix is treated as losing per second of age
+    private static final float AGE_PENALTY_M_PER_S = 2f;
+    // Network fixes are often optimistic about their own accuracy
+    private static final float NON_GPS_PENALTY_M = 25f;
+    private static final float UNKNOWN_ACCURACY_M = 5000f;
+
+    private final float accuracyTargetMeters;
+    private Location best;
+    private float bestScore = Float.MAX_VALUE;
+    private int candidates = 0;
+
+    public FixSelector(float accuracyTargetMeters) {
+        this.accuracyTargetMeters = accuracyTargetMeters;
+    }
+
+    /** Adds a candidate; returns true if it became the current best. */
+    public boolean offer(Location location) {
+        candidates++;
+        float score = score(location);
+        if (score < bestScore) {
+            best = location;
+            bestScore = score;
+            return true;
+        }
+        return false;
+    }
+
+    public Location best() {
+        return best;
+    }
+
+    public int candidateCount() {
+        return candidates;
+    }
+
+    /** True once the best fix is accurate enough to stop listening early. */
+    public boolean isSatisfied() {
+        return best != null && best.hasAccuracy() && best.getAccuracy() <= accuracyTargetMeters;
+    }
+
+    private float score(Location location) {
+        float accuracy = location.hasAccuracy() ? location.getAccuracy() : UNKNOWN_ACCURACY_M;
+        long ageNanos = SystemClock.elapsedRealtimeNanos() - location.getElapsedRealtimeNanos();
+        float ageSeconds = Math.max(0, ageNanos / 1_000_000_000f);
+        float score = accuracy + ageSeconds * AGE_PENALTY_M_PER_S;
+        if (!LocationManager.GPS_PROVIDER.equals(location.getProvider())) {
+            score += NON_GPS_PENALTY_M;
+        }
+        return score;
+    }
+}
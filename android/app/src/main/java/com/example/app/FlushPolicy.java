@@ -0,0 +1,55 @@
+package com.example.app;
+
+/**
+ * Decides when queued fixes are worth a network round trip.
+ *
+ * A flush happens once any limit is reached: {@code maxFixes} queued,
+ * the oldest fix waiting {@code maxDelayMs}, or {@code maxBytes} of queued
+ * records. A policy with {@code maxFixes <= 1} disables batching and
+ * uploads every fix on its own as before.
+ */
+public class FlushPolicy {
+    public final int maxFixes;
+    public final long maxDelayMs;
+    public final long maxBytes;
+
+    public FlushPolicy(int maxFixes, long maxDelayMs, long maxBytes) {
+        this.maxFixes = Math.max(1, maxFixes);
+        this.maxDelayMs = Math.max(0, maxDelayMs);
+        this.maxBytes = Math.max(0, maxBytes);
+    }
+
+    public static FlushPolicy immediate() {
+        return new FlushPolicy(1, 0, 0);
+    }
+
+    public boolean isBatching() {
+        return maxFixes > 1;
+    }
+
+    public boolean shouldFlush(int queuedFixes, long queuedBytes, long oldestAgeMs) {
+        if (queuedFixes == 0) {
+            return false;
+        }
+        if (!isBatching() || queuedFixes >= maxFixes) {
+            return true;
+        }
+        if (maxDelayMs > 0 && oldestAgeMs >= maxDelayMs) {
+            return true;
+        }
+        return maxBytes > 0 && queuedBytes >= maxBytes;
+    }
+
+    /** Time until the oldest queued fix hits the delay limit, or -1 if there is no delay limit. */
+    public long delayUntilDue(long oldestAgeMs) {
+        if (maxDelayMs <= 0) {
+            return -1;
+        }
+        return Math.max(0, maxDelayMs - oldestAgeMs);
+    }
+
+    @Override
+    public String toString() {
+        return "FlushPolicy{maxFixes=" + maxFixes + ", maxDelayMs=" + maxDelayMs + ", maxBytes=" + maxBytes + "}";
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.app;
+
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Gzip framing around a single reused {@link Deflater}, so compressing a
+ * batch does not allocate a new deflater, its native buffers and an output
+ * stream on every upload. Not thread-safe.
+ */
+public final class GzipCompressor {
+    private static final byte[] HEADER = {
+        0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff
+    };
+
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final CRC32 crc = new CRC32();
+
+    public void compress(PayloadBuffer in, PayloadBuffer out) {
+        out.reset();
+        out.write(HEADER, 0, HEADER.length);
+
+        deflater.reset();
+        deflater.setInput(in.array(), 0, in.length());
+        deflater.finish();
+        while (!deflater.finished()) {
+            out.ensureCapacity(out.length() + Math.max(64, in.length() / 4));
+            int written = deflater.deflate(out.array(), out.length(), out.array().length - out.length());
+            out.advance(written);
+        }
+
+        crc.reset();
+        crc.update(in.array(), 0, in.length());
+        writeIntLE((int) crc.getValue(), out);
+        writeIntLE(in.length(), out);
+    }
+
+    private static void writeIntLE(int value, PayloadBuffer out) {
+        out.write(value);
+        out.write(value >>> 8);
+        out.write(value >>> 16);
+        out.write(value >>> 24);
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.app;
+
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyProperties;
+import android.util.Base64;
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * Encrypts short secrets (access tokens) for {@link ServiceState} with an
+ * AES-GCM key that is generated inside the Android Keystore and never
+ * leaves it, so a copy of the prefs file or a backup does not carry them
+ * in the clear.
+ *
+ * Either method returns null when the keystore cannot do the work; the
+ * caller then keeps the secret out of storage instead of writing it plain.
+ */
+public final class KeystoreCipher {
+    private static final String TAG = "KeystoreCipher";
+    private static final String KEYSTORE = "AndroidKeyStore";
+    private static final String KEY_ALIAS = "service_state";
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int TAG_BITS = 128;
+    private static final int IV_BYTES = 12;
+
+    private KeystoreCipher() {}
+
+    /** Base64 of the IV followed by the ciphertext. */
+    public static String encrypt(String plaintext) {
+        try {
+            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            cipher.init(Cipher.ENCRYPT_MODE, key());
+            byte[] iv = cipher.getIV();
+            byte[] sealed = cipher.doFinal(plaintext.getBytes(StandardCharsets.UTF_8));
+            ByteBuffer out = ByteBuffer.allocate(iv.length + sealed.length);
+            out.put(iv).put(sealed);
+            return Base64.encodeToString(out.array(), Base64.NO_WRAP);
+        } catch (GeneralSecurityException | IOException e) {
+            Log.w(TAG, "Encryption unavailable: " + e);
+            return null;
+        }
+    }
+
+    public static String decrypt(String encoded) {
+        try {
+            byte[] data = Base64.decode(encoded, Base64.NO_WRAP);
+            if (data.length <= IV_BYTES) {
+                return null;
+            }
+            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            cipher.init(Cipher.DECRYPT_MODE, key(), new GCMParameterSpec(TAG_BITS, data, 0, IV_BYTES));
+            byte[] plain = cipher.doFinal(data, IV_BYTES, data.length - IV_BYTES);
+            return new String(plain, StandardCharsets.UTF_8);
+        } catch (GeneralSecurityException | IOException | IllegalArgumentException e) {
+            // Key gone (app data restored to another device) or value corrupt
+            Log.w(TAG, "Decryption failed: " + e);
+            return null;
+        }
+    }
+
+    private static synchronized SecretKey key() throws GeneralSecurityException, IOException {
+        KeyStore keyStore = KeyStore.getInstance(KEYSTORE);
+        keyStore.load(null);
+        KeyStore.Entry entry = keyStore.getEntry(KEY_ALIAS, null);
+        if (entry instanceof KeyStore.SecretKeyEntry) {
+            return ((KeyStore.SecretKeyEntry) entry).getSecretKey();
+        }
+        KeyGenerator generator = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_AES, KEYSTORE);
+        generator.init(new KeyGenParameterSpec.Builder(KEY_ALIAS,
+                KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
+            .setBlockModes(KeyProperties.BLOCK_MODE_GCM)
+            .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE)
+            .setKeySize(256)
+            .build());
+        return generator.generateKey();
+    }
+}
@@ -0,0 +1,195 @@
+package com.example.app;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streams live-trip fixes as newline-delimited JSON over one long-lived
+ * chunked HTTP POST instead of one request per fix.
+ *
+ * Fixes wait in a fixed-size queue; if the stream cannot keep up the
+ * oldest are handed to {@code fallback} (normally the outbox) rather than
+ * growing memory. A stream is rotated after {@link #ROTATE_MS} so the
+ * server acknowledges what it got, and reopened with backoff if it breaks.
+ * Fixes written to a stream are held until it gets a 2xx; if it breaks or
+ * is refused they all go to the fallback, so a fix the server may already
+ * have seen can arrive twice but none are lost.
+ */
+public class LiveStreamer {
+    private static final String TAG = "LiveStreamer";
+    public static final String CONTENT_TYPE = "application/x-ndjson";
+
+    private static final int QUEUE_CAPACITY = 256;
+    private static final long ROTATE_MS = 5 * 60 * 1000;
+    private static final long RECONNECT_BASE_MS = 1000;
+    private static final long RECONNECT_MAX_MS = 60 * 1000;
+
+    public interface Fallback {
+        void onUnsent(LocationFix fix);
+    }
+
+    private final String endpoint;
+    private final String accessToken;
+    private final Fallback fallback;
+    private final BlockingQueue<LocationFix> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final TrackingMetrics metrics = TrackingMetrics.get();
+    private final FixJsonEncoder encoder = new FixJsonEncoder();
+    private final PayloadBuffer line = new PayloadBuffer(128);
+    // Written to the open stream but not yet acknowledged; only touched by the stream thread
+    private final List<LocationFix> unacknowledged = new ArrayList<>();
+    private final RetryBackoff reconnectBackoff = new RetryBackoff(RECONNECT_BASE_MS, RECONNECT_MAX_MS);
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    public LiveStreamer(String endpoint, String accessToken, Fallback fallback) {
+        this.endpoint = endpoint;
+        this.accessToken = accessToken;
+        this.fallback = fallback;
+        this.thread = new Thread(this::run, "LiveStreamer");
+        this.thread.start();
+    }
+
+    public void offer(LocationFix fix) {
+        while (!queue.offer(fix)) {
+            LocationFix oldest = queue.poll();
+            if (oldest != null) {
+                metrics.increment(TrackingMetrics.LIVE_OVERFLOW);
+                fallback.onUnsent(oldest);
+            }
+        }
+        metrics.setGauge(TrackingMetrics.LIVE_QUEUE_DEPTH, queue.size());
+    }
+
+    /** Closes the stream; anything still queued goes to the fallback. */
+    public void stop() {
+        running = false;
+        thread.interrupt();
+    }
+
+    private void run() {
+        while (running) {
+            LocationFix first;
+            try {
+                first = queue.take();
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (!stream(first)) {
+                sleep(reconnectBackoff.nextDelayMs());
+            } else {
+                reconnectBackoff.reset();
+            }
+        }
+
+        List<LocationFix> unsent = new ArrayList<>();
+        queue.drainTo(unsent);
+        for (LocationFix fix : unsent) {
+            fallback.onUnsent(fix);
+        }
+        Log.d(TAG, "Live stream stopped, " + unsent.size() + " fixes handed back");
+    }
+
+    // Opens one stream starting with first; returns false if it failed before the server answered
+    private boolean stream(LocationFix first) {
+        HttpURLConnection connection = null;
+        LocationFix current = first;
+        long openedAt = System.currentTimeMillis();
+        unacknowledged.clear();
+        try {
+            connection = (HttpURLConnection) new URL(endpoint).openConnection();
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("Content-Type", CONTENT_TYPE);
+            if (accessToken != null && !accessToken.isEmpty()) {
+                connection.setRequestProperty("Authorization", "Bearer " + accessToken);
+            }
+            connection.setDoOutput(true);
+            connection.setChunkedStreamingMode(0);
+            connection.setConnectTimeout(10000);
+            connection.setReadTimeout(10000);
+
+            OutputStream os = connection.getOutputStream();
+            while (current != null) {
+                write(current, os);
+                unacknowledged.add(current);
+                current = null;
+
+                long remainingMs = ROTATE_MS - (System.currentTimeMillis() - openedAt);
+                if (remainingMs <= 0 || !running) {
+                    break;
+                }
+                try {
+                    current = queue.poll(remainingMs, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    // Stopped: close this stream cleanly so the server sees its end
+                    running = false;
+                }
+                metrics.setGauge(TrackingMetrics.LIVE_QUEUE_DEPTH, queue.size());
+            }
+            os.close();
+
+            int responseCode = connection.getResponseCode();
+            InputStream in = responseCode >= 400 ? connection.getErrorStream() : connection.getInputStream();
+            if (in != null) {
+                in.close();
+            }
+            Log.d(TAG, "Live stream closed after " + unacknowledged.size() + " fixes: " + responseCode);
+            if (responseCode >= 200 && responseCode < 300) {
+                unacknowledged.clear();
+                return true;
+            }
+            handBack(null);
+            return false;
+
+        } catch (IOException e) {
+            Log.e(TAG, "Live stream failed after " + unacknowledged.size() + " fixes: " + e.getMessage());
+            handBack(current);
+            return false;
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    // The server never acknowledged this stream, so everything on it goes the slow way
+    private void handBack(LocationFix pending) {
+        for (LocationFix fix : unacknowledged) {
+            fallback.onUnsent(fix);
+        }
+        if (pending != null) {
+            fallback.onUnsent(pending);
+        }
+        metrics.add(TrackingMetrics.LIVE_HANDED_BACK, unacknowledged.size() + (pending != null ? 1 : 0));
+        unacknowledged.clear();
+    }
+
+    private void write(LocationFix fix, OutputStream os) throws IOException {
+        line.reset();
+        encoder.writeFix(fix, line);
+        line.write('\n');
+        line.writeTo(os);
+        // Each flush sends one chunk, so the fix leaves the device now
+        os.flush();
+        metrics.increment(TrackingMetrics.LIVE_FIXES);
+        metrics.add(TrackingMetrics.BYTES_SENT, line.length());
+        metrics.record(TrackingMetrics.LIVE_LATENCY_MS, Math.max(0, System.currentTimeMillis() - fix.time));
+    }
+
+    private void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            running = false;
+        }
+    }
+}
@@ -13,7 +13,11 @@ public class LocationAlarmReceiver extends BroadcastReceiver {
     @Override
     public void onReceive(Context context, Intent intent) {
         Log.d(TAG, "Alarm triggered - acquiring wake lock");
+        startCycle(context);
+    }
 
+    /** Also used by {@link LocationJobService} when wakeups come from JobScheduler. */
+    static void startCycle(Context context) {
         // Acquire a wake lock to ensure the device stays awake
         PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
         PowerManager.WakeLock wakeLock = powerManager.newWakeLock(
@@ -21,8 +25,8 @@ public class LocationAlarmReceiver extends BroadcastReceiver {
             WAKELOCK_TAG
         );
         
-        // Hold wake lock for up to 3 minutes (enough time to get location)
-        wakeLock.acquire(3 * 60 * 1000L);
+        // Hold wake lock long enough for a typical cycle, learned from recent time-to-first-fix
+        wakeLock.acquire(new TtffHistory(context).wakeLockMs());
 
         // Start the service to get location
         Intent serviceIntent = new Intent(context, LocationForegroundService.class);
@@ -0,0 +1,82 @@
+package com.example.app;
+
+import android.location.Location;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Immutable snapshot of a single location fix as it is queued and uploaded.
+ * Kept separate from {@link Location} so it can be written to disk and
+ * read back after the process has been killed.
+ */
+public final class LocationFix {
+    public final long time;
+    public final double latitude;
+    public final double longitude;
+    public final float accuracy;
+    public final float speed;
+    public final float bearing;
+    public final String provider;
+    public final TripRecord trip;  // null unless this fix revealed a trip event
+
+    public LocationFix(long time, double latitude, double longitude,
+                       float accuracy, float speed, float bearing, String provider) {
+        this(time, latitude, longitude, accuracy, speed, bearing, provider, null);
+    }
+
+    public LocationFix(long time, double latitude, double longitude,
+                       float accuracy, float speed, float bearing, String provider, TripRecord trip) {
+        this.time = time;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.accuracy = accuracy;
+        this.speed = speed;
+        this.bearing = bearing;
+        this.provider = provider != null ? provider : "";
+        this.trip = trip;
+    }
+
+    public LocationFix withTrip(TripRecord trip) {
+        return new LocationFix(time, latitude, longitude, accuracy, speed, bearing, provider, trip);
+    }
+
+    public static LocationFix from(Location location) {
+        return new LocationFix(
+            location.getTime(),
+            location.getLatitude(),
+            location.getLongitude(),
+            location.hasAccuracy() ? location.getAccuracy() : -1f,
+            location.hasSpeed() ? location.getSpeed() : -1f,
+            location.hasBearing() ? location.getBearing() : -1f,
+            location.getProvider()
+        );
+    }
+
+    // time,lat,lon,accuracy,speed,bearing,provider[,trip]; the outbox writes it with a reused FixRecordEncoder
+    public String toRecord() {
+        PayloadBuffer record = new PayloadBuffer(96);
+        new FixRecordEncoder().write(this, record);
+        return new String(record.array(), 0, record.length(), StandardCharsets.UTF_8);
+    }
+
+    public static LocationFix fromRecord(String record) {
+        String[] parts = record.split(",", 8);
+        if (parts.length < 7) {
+            return null;
+        }
+        try {
+            return new LocationFix(
+                Long.parseLong(parts[0]),
+                Double.parseDouble(parts[1]),
+                Double.parseDouble(parts[2]),
+                Float.parseFloat(parts[3]),
+                Float.parseFloat(parts[4]),
+                Float.parseFloat(parts[5]),
+                parts[6],
+                parts.length > 7 ? TripRecord.fromRecord(parts[7]) : null
+            );
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
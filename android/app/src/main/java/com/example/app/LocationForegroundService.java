@@ -1,6 +1,5 @@
 package com.example.app;
 
-import android.app.AlarmManager;
 import android.app.Notification;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
@@ -10,12 +9,20 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.content.pm.ServiceInfo;
+import android.hardware.Sensor;
+import android.hardware.SensorManager;
+import android.hardware.TriggerEvent;
+import android.hardware.TriggerEventListener;
+import android.location.GnssStatus;
 import android.location.Location;
+import android.os.Binder;
 import android.os.Build;
+import android.os.Bundle;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
-import android.os.Looper;
 import android.os.PowerManager;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.annotation.Nullable;
@@ -25,59 +32,197 @@ import androidx.core.app.NotificationCompat;
 import android.location.LocationListener;
 import android.location.LocationManager;
 
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Locale;
-import java.util.TimeZone;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Map;
+import java.util.Set;
 
 public class LocationForegroundService extends Service {
     private static final String TAG = "LocationService";
     private static final String CHANNEL_ID = "location_tracking_channel";
     private static final int NOTIFICATION_ID = 1001;
-    private static final long INTERVAL_MS = 5 * 60 * 1000; // 5 minutes
+    static final long DEFAULT_MIN_INTERVAL_MS = 2 * 60 * 1000; // 2 minutes
+    static final long DEFAULT_MAX_INTERVAL_MS = 30 * 60 * 1000; // 30 minutes
+    static final float DEFAULT_DISTANCE_TARGET_M = 1000f;
+    static final long FIX_SELECTION_WINDOW_MS = 10 * 1000; // after the first candidate
+    static final float DEFAULT_ACCURACY_TARGET_M = 20f;
+    // Give up on GPS if this long into a cycle too few satellites are audible
+    static final long SKY_CHECK_MS = 20 * 1000;
+    private static final int MIN_AUDIBLE_SATELLITES = 4;
+    private static final float MIN_SATELLITE_CN0_DBHZ = 20f;
+    // A fix another app caused within this window saves us powering up GPS
+    private static final long PASSIVE_MAX_AGE_MS = 60 * 1000;
+    private static final long PASSIVE_MIN_TIME_MS = 10 * 1000;
+    private static final String DEFAULT_ENDPOINT = "http://192.168.1.155:3000";
+    private static final long DEFAULT_LIVE_INTERVAL_MS = 3 * 1000;
+    private static final long MIN_LIVE_INTERVAL_MS = 1000;
+    private static final long DEFAULT_LIVE_MAX_DURATION_MS = 4 * 60 * 60 * 1000;
     private static final String WAKELOCK_TAG = "LocationTracking:ServiceWakeLock";
+    private static final String LIVE_WAKELOCK_TAG = "LocationTracking:LiveTripWakeLock";
+    private static final long LIVE_WRITE_WAKE_MS = 10 * 1000; // one fix written and flushed by the stream thread
+    private static final int MAX_OUTBOX_RECORDS = 10000; // ~35 days at one fix per 5 minutes
 
-    private AlarmManager alarmManager;
-    private PendingIntent alarmPendingIntent;
-    private PowerManager.WakeLock wakeLock;
+    // Options applyConfig rebuilds together: touching one re-applies the group from all its keys
+    private static final String[] BATCHING = { "batchSize", "batchMaxDelayMs", "batchMaxBytes" };
+    private static final String[] INTERVAL = { "minIntervalMs", "maxIntervalMs", "distanceTargetMeters" };
+    private static final String[] SIMPLIFIER = { "simplifyToleranceMeters", "heartbeatMs" };
+    private static final String[] ENDPOINTS = { "endpoints", "endpointSelection", "hedgeAfterMs" };
+    private static final String[] TRIPS = { "tripSegmentation", "tripStartDistanceMeters", "tripStopRadiusMeters",
+        "tripDwellMs", "tripSummaryIntervalMs" };
+    private static final String[] WAKEUPS = { "alarmTier", "alarmToleranceMs" };
+    private static final String[][] CONFIG_GROUPS = { BATCHING, INTERVAL, SIMPLIFIER, ENDPOINTS, TRIPS, WAKEUPS };
+
+    private WakeupScheduler wakeups;
+    private volatile PowerManager.WakeLock wakeLock;
     private LocationManager locationManager;
-    private Location lastLocation;
-    private ExecutorService executorService;
+    private volatile Location lastLocation;
+    private LocationOutbox outbox;
+    private final LocationUploader uploader = new LocationUploader();
+    private UploadPipeline uploadPipeline;
+    private volatile TrajectorySimplifier simplifier;
+    private volatile TripSegmenter tripSegmenter = TripSegmenter.withDefaults();
+    private volatile AdaptiveInterval adaptiveInterval = new AdaptiveInterval(
+        DEFAULT_MIN_INTERVAL_MS, DEFAULT_MAX_INTERVAL_MS, DEFAULT_DISTANCE_TARGET_M);
+    private SensorManager sensorManager;
+    private Sensor significantMotionSensor;
+    private TriggerEventListener motionListener;
+    private boolean motionListenerArmed = false;
     private LocationListener singleUpdateListener;
-    private boolean locationUpdateProcessed = false;
+    private FixSelector fixSelector;
+    private volatile float accuracyTargetMeters = DEFAULT_ACCURACY_TARGET_M;
+    private TtffHistory ttffHistory;
+    private long cycleStartElapsed;
+    private boolean cycleNetworkRequested;
+    private long cycleTimeoutMs;
+    private final Set<String> cycleProviders = new HashSet<>();
+    private GnssStatus.Callback gnssCallback;
+    private int audibleSatellites = 0;
+    private volatile boolean passiveEnabled = true;
+    private LocationListener passiveListener;
+    private Location passiveLocation;
+    private long lastOwnFixNanos;        // newest fix our own requests produced, on the elapsed-realtime clock
+    private final TrackingMetrics metrics = TrackingMetrics.get();
+    private long wakeLockAcquiredAt;
+    private long gpsOnSince = -1;
+    private ServiceState state;
+    private LocationHistory history;
+    private ProfileScheduler profiles;
+    private long defaultDueAt = 0;       // wall-clock time the session's own feed wants its next fix
+    private long defaultIntervalMs = DEFAULT_MIN_INTERVAL_MS;
+    private volatile LocationListener profileListener;
+    private long profileSessionIntervalMs;
+    private long resumeAlarmAt = -1;     // saved alarm to re-arm instead of fetching at once
+    private long restartedAt = -1;       // elapsed time of a restore, until the first upload after it
+    private LiveStreamer liveStreamer;
+    private volatile LocationListener liveListener;
+    private PowerManager.WakeLock liveWakeLock;
+    private long liveTripEndsAt;         // elapsed-realtime ms
+    private final Runnable liveTripExpired = () -> {
+        Log.d(TAG, "Live trip reached its maximum duration");
+        stopLiveTrip();
+    };
+
+    /**
+     * States of one location cycle. Everything in a cycle runs on
+     * {@link #cycleHandler}; its timers are cancelled when the cycle ends,
+     * so nothing from an earlier cycle can fire into a later one.
+     */
+    private enum CycleState {
+        IDLE,       // waiting for the next alarm
+        ACQUIRING,  // providers requested, no candidate yet
+        SELECTING   // have a candidate, waiting briefly for a better one
+    }
+
+    // Cycle thread keeps location callbacks and timers off the WebView's main looper
+    private HandlerThread cycleThread;
+    private Handler cycleHandler;
+    private volatile CycleState cycleState = CycleState.IDLE;
+    private final Runnable cycleTimeout = this::onCycleDeadline;
+    private float cycleAccuracyTarget = DEFAULT_ACCURACY_TARGET_M;
+    private final Runnable selectionWindowEnd = () -> completeCycle(fixSelector.best());
+    private final Runnable skyCheck = this::checkSky;
 
-    private String serverEndpoint = "http://192.168.1.155:3000";
-    private String accessToken = "";
 
     @Override
     public void onCreate() {
         super.onCreate();
         Log.d(TAG, "Service onCreate");
 
-        executorService = Executors.newSingleThreadExecutor();
+        cycleThread = new HandlerThread("LocationCycle");
+        cycleThread.start();
+        cycleHandler = new Handler(cycleThread.getLooper());
+
+        outbox = new LocationOutbox(getFilesDir(), MAX_OUTBOX_RECORDS);
+        uploadPipeline = new UploadPipeline(outbox, uploader, DEFAULT_ENDPOINT);
+        profiles = new ProfileScheduler(getFilesDir(), uploader);
+        ttffHistory = new TtffHistory(this);
         locationManager = (LocationManager) getSystemService(LOCATION_SERVICE);
-        alarmManager = (AlarmManager) getSystemService(Context.ALARM_SERVICE);
+        wakeups = new WakeupScheduler(this);
+        sensorManager = (SensorManager) getSystemService(Context.SENSOR_SERVICE);
+        if (sensorManager != null) {
+            significantMotionSensor = sensorManager.getDefaultSensor(Sensor.TYPE_SIGNIFICANT_MOTION);
+        }
+
+        uploadPipeline.setUploadListener(this::onFixesUploaded);
+        restoreState();
 
         createNotificationChannel();
-        setupAlarm();
+        long resumeAt = resumeAlarmAt;
+        cycleHandler.post(() -> {
+            if (resumeAt > 0 && profiles.continuousIntervalMs() == 0) {
+                scheduleAlarmAt(resumeAt);
+            } else {
+                resumeSchedule();
+            }
+            startPassiveUpdates();
+        });
+
+        // Flush anything left over from before the process was killed
+        uploadPipeline.requestDrain();
     }
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         Log.d(TAG, "Service onStartCommand");
 
+        // Any action may be a cold start through startForegroundService, which must reach
+        // startForeground in time whatever it then does
+        Notification notification = buildNotification("Location tracking active");
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            startForeground(NOTIFICATION_ID, notification, ServiceInfo.FOREGROUND_SERVICE_TYPE_LOCATION);
+        } else {
+            startForeground(NOTIFICATION_ID, notification);
+        }
+
         if (intent != null) {
             String action = intent.getAction();
 
             // Handle fetch location action from alarm
             if ("FETCH_LOCATION".equals(action)) {
                 Log.d(TAG, "Alarm triggered - fetching location");
-                fetchAndSendLocation();
+                wakeups.onFired(state.nextAlarmAt(), System.currentTimeMillis(), wakeupIntervalMs());
+                cycleHandler.post(this::fetchAndSendLocation);
+                return START_STICKY;
+            }
+
+            // Handle live trip start/stop from the plugin
+            if ("START_LIVE_TRIP".equals(action)) {
+                long intervalMs = intent.getLongExtra("liveIntervalMs", DEFAULT_LIVE_INTERVAL_MS);
+                long maxDurationMs = intent.getLongExtra("liveMaxDurationMs", DEFAULT_LIVE_MAX_DURATION_MS);
+                beginLiveTrip(intervalMs, maxDurationMs, intent.getStringExtra("liveEndpoint"));
+                return START_STICKY;
+            }
+            if ("STOP_LIVE_TRIP".equals(action)) {
+                endLiveTrip();
+                return START_STICKY;
+            }
+
+            // Handle deferred upload job: the network got cheap or the deadline passed
+            if ("FLUSH_UPLOADS".equals(action)) {
+                uploadPipeline.requestDrain();
                 return START_STICKY;
             }
 
@@ -85,34 +230,305 @@ public class LocationForegroundService extends Service {
             if ("UPDATE_TOKEN".equals(action)) {
                 String newToken = intent.getStringExtra("accessToken");
                 if (newToken != null) {
-                    accessToken = newToken;
-                    Log.d(TAG, "Access token updated in service");
+                    updateAccessToken(newToken);
                 }
                 return START_STICKY;
             }
 
             // Handle initial startup
-            if (intent.hasExtra("endpoint")) {
-                serverEndpoint = intent.getStringExtra("endpoint");
+            Bundle config = intent.getExtras();
+            if (config != null && config.containsKey("endpoint")) {
+                applyConfig(config);
+                state.saveConfig(config);
             }
-            if (intent.hasExtra("accessToken")) {
-                accessToken = intent.getStringExtra("accessToken");
+        }
+
+        if (intent == null && resumeAlarmAt > 0) {
+            // START_STICKY restart: the saved alarm is still ahead, no need to burn a GPS cycle now
+            Log.d(TAG, "Restarted by the system - resuming schedule");
+        } else {
+            // Get initial location immediately
+            cycleHandler.post(this::fetchAndSendLocation);
+        }
+        resumeAlarmAt = -1;
+
+        return START_STICKY;
+    }
+
+    // Picks up where a killed instance left off; the outbox itself is already on disk
+    private void restoreState() {
+        state = new ServiceState(this);
+        history = LocationHistory.get(getFilesDir());
+        Bundle config = state.loadConfig();
+        if (config == null) {
+            return;
+        }
+        applyConfig(config);
+        // Queued behind the segmenter swap applyConfig posted
+        String tripState = state.tripState();
+        cycleHandler.post(() -> {
+            TripSegmenter segmenter = tripSegmenter;
+            if (segmenter != null) {
+                segmenter.restore(tripState);
             }
+        });
+        for (Map.Entry<String, Bundle> profile : state.loadProfiles().entrySet()) {
+            profiles.putSettings(profile.getKey(), profile.getValue());
         }
+        restartedAt = SystemClock.elapsedRealtime();
 
-        // Start as foreground service
-        Notification notification = buildNotification("Location tracking active - every 5 minutes");
+        LocationFix fix = state.lastFix();
+        if (fix != null) {
+            Location location = new Location(fix.provider);
+            location.setTime(fix.time);
+            location.setLatitude(fix.latitude);
+            location.setLongitude(fix.longitude);
+            if (fix.accuracy >= 0) {
+                location.setAccuracy(fix.accuracy);
+            }
+            lastLocation = location;
+            adaptiveInterval.onFix(fix);
+        }
 
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
-            startForeground(NOTIFICATION_ID, notification, ServiceInfo.FOREGROUND_SERVICE_TYPE_LOCATION);
-        } else {
-            startForeground(NOTIFICATION_ID, notification);
+        // An alarm still in the future means no cycle was lost: keep the schedule
+        long nextAlarmAt = state.nextAlarmAt();
+        if (!state.cycleInFlight() && nextAlarmAt > System.currentTimeMillis()) {
+            resumeAlarmAt = nextAlarmAt;
         }
+        Log.d(TAG, "Restored state: last fix " + (fix != null ? fix.time : "none")
+            + ", next alarm " + (resumeAlarmAt > 0 ? "at " + resumeAlarmAt : "now"));
+    }
+
+    /** Binder for the plugin, which lives in the same process: calls are plain method calls. */
+    public class LocalBinder extends Binder {
+        LocationForegroundService getService() {
+            return LocationForegroundService.this;
+        }
+    }
 
-        // Get initial location immediately
-        fetchAndSendLocation();
+    private final IBinder binder = new LocalBinder();
 
-        return START_STICKY;
+    /** Receives every fix the service takes, on the thread that took it. */
+    public interface FixListener {
+        void onFix(LocationFix fix);
+    }
+
+    private volatile FixListener fixListener;
+
+    public void setFixListener(FixListener listener) {
+        fixListener = listener;
+    }
+
+    private void publishFix(LocationFix fix) {
+        history.append(fix);
+        FixListener listener = fixListener;
+        if (listener != null) {
+            listener.onFix(fix);
+        }
+    }
+
+    public void updateAccessToken(String accessToken) {
+        uploadPipeline.setAccessToken(accessToken);
+        profiles.setSessionToken(accessToken);
+        state.saveAccessToken(accessToken);
+        Log.d(TAG, "Access token updated in service");
+    }
+
+    /**
+     * Merges the given options into the current configuration, applies them
+     * and keeps them for restarts. Options not given keep their current value.
+     */
+    public void updateConfig(Bundle options) {
+        state.mergeConfig(options);
+        applyConfig(withGroups(options, state.loadConfig()));
+        Log.d(TAG, "Configuration updated: " + options.keySet());
+    }
+
+    // The given options plus the current value of every other option in a group they touch
+    private static Bundle withGroups(Bundle options, Bundle current) {
+        Bundle complete = current != null ? new Bundle(current) : new Bundle();
+        complete.putAll(options);
+        for (String key : new ArrayList<>(complete.keySet())) {
+            if (!options.containsKey(key) && !touchesGroupOf(options, key)) {
+                complete.remove(key);
+            }
+        }
+        return complete;
+    }
+
+    private static boolean touchesGroupOf(Bundle options, String key) {
+        for (String[] group : CONFIG_GROUPS) {
+            if (Arrays.asList(group).contains(key)) {
+                return containsAny(options, group);
+            }
+        }
+        return false;
+    }
+
+    private static boolean containsAny(Bundle config, String[] keys) {
+        for (String key : keys) {
+            if (config.containsKey(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Switches to continuous updates streamed to {@code liveEndpoint}, or the session endpoint if null. */
+    public void beginLiveTrip(long intervalMs, long maxDurationMs, String liveEndpoint) {
+        cycleHandler.post(() -> startLiveTrip(intervalMs, maxDurationMs, liveEndpoint));
+    }
+
+    public void endLiveTrip() {
+        cycleHandler.post(this::stopLiveTrip);
+    }
+
+    public TrackingStatus getStatus() {
+        Location location = lastLocation;
+        return new TrackingStatus(
+            location != null ? LocationFix.from(location) : null,
+            state.nextAlarmAt(),
+            uploadPipeline.queuedFixes(),
+            cycleState.name(),
+            liveListener != null,
+            profiles.status()
+        );
+    }
+
+    /** Adds or changes a named profile; it shares the session's fixes and gets its own upload queue. */
+    public void putProfile(String name, long intervalMs, float accuracyMeters, String endpoint, String accessToken) {
+        profiles.put(name, intervalMs, accuracyMeters, endpoint, accessToken);
+        state.saveProfile(name, profiles.settings(name));
+        cycleHandler.post(this::onProfilesChanged);
+    }
+
+    public boolean removeProfile(String name) {
+        if (!profiles.remove(name)) {
+            return false;
+        }
+        state.removeProfile(name);
+        cycleHandler.post(this::onProfilesChanged);
+        return true;
+    }
+
+    // Runs on the cycle thread; a running cycle reschedules by itself when it ends
+    private void onProfilesChanged() {
+        if (cycleState == CycleState.IDLE) {
+            resumeSchedule();
+        }
+    }
+
+    private void onFixesUploaded(int fixes) {
+        long restarted = restartedAt;
+        if (restarted >= 0) {
+            restartedAt = -1;
+            long ms = SystemClock.elapsedRealtime() - restarted;
+            metrics.record(TrackingMetrics.RESTART_TO_UPLOAD_MS, ms);
+            Log.d(TAG, "First upload " + ms + "ms after restore");
+        }
+    }
+
+    /** Applies start options; used for the plugin's start intent and the restored snapshot. */
+    private void applyConfig(Bundle config) {
+        if (config.containsKey("endpoint")) {
+            uploadPipeline.setEndpoint(config.getString("endpoint"));
+        }
+        if (containsAny(config, ENDPOINTS)) {
+            EndpointSelector.Mode mode = "latency".equals(config.getString("endpointSelection"))
+                ? EndpointSelector.Mode.LATENCY
+                : EndpointSelector.Mode.ORDERED;
+            // No list (never configured, or a snapshot saved before it was given) keeps the current one
+            EndpointSelector selector = EndpointSelector.parse(config.getString("endpoints", ""), mode);
+            if (selector != null) {
+                uploadPipeline.setEndpoints(selector, config.getLong("hedgeAfterMs", 0));
+                Log.d(TAG, "Upload endpoints (" + mode + "): " + selector.describe());
+            }
+        }
+        if (config.containsKey("accessToken")) {
+            uploadPipeline.setAccessToken(config.getString("accessToken"));
+            profiles.setSessionToken(config.getString("accessToken"));
+        }
+        if (containsAny(config, BATCHING)) {
+            FlushPolicy flushPolicy = new FlushPolicy(
+                config.getInt("batchSize", 1),
+                config.getLong("batchMaxDelayMs", 0),
+                config.getLong("batchMaxBytes", 0)
+            );
+            uploadPipeline.setFlushPolicy(flushPolicy);
+            Log.d(TAG, "Upload batching: " + flushPolicy);
+        }
+        if (config.containsKey("maxDeliveryLatencyMs")) {
+            long maxLatencyMs = config.getLong("maxDeliveryLatencyMs", 0);
+            uploadPipeline.setDeferral(maxLatencyMs > 0
+                ? new DeferredUploadScheduler(this, uploadPipeline::requestDrain)
+                : null, maxLatencyMs);
+        }
+        if (containsAny(config, SIMPLIFIER)) {
+            double tolerance = config.getDouble("simplifyToleranceMeters", 0);
+            long heartbeatMs = config.getLong("heartbeatMs", 15 * 60 * 1000);
+            simplifier = tolerance > 0 ? new TrajectorySimplifier(tolerance, heartbeatMs) : null;
+            // Profiles, including a continuous profile session, are filtered the same way
+            profiles.setSimplifier(tolerance, heartbeatMs);
+        }
+        if (containsAny(config, TRIPS)) {
+            TripSegmenter next = config.getBoolean("tripSegmentation", true)
+                ? new TripSegmenter(
+                    config.getDouble("tripStartDistanceMeters", 200),
+                    config.getDouble("tripStopRadiusMeters", 100),
+                    3f,
+                    config.getLong("tripDwellMs", 10 * 60 * 1000),
+                    config.getLong("tripSummaryIntervalMs", 15 * 60 * 1000),
+                    150f)
+                : null;
+            // Swapped on the cycle thread, which feeds the segmenter, so no fix lands in the
+            // old one after its state was copied
+            cycleHandler.post(() -> {
+                TripSegmenter previous = tripSegmenter;
+                // New thresholds apply to the trip in progress rather than starting over
+                if (previous != null && next != null) {
+                    next.restore(previous.toRecord());
+                }
+                tripSegmenter = next;
+            });
+        }
+        if (config.containsKey("queueFullPolicy")) {
+            outbox.setOverflowPolicy("coalesceLatest".equals(config.getString("queueFullPolicy"))
+                ? LocationOutbox.OverflowPolicy.COALESCE_LATEST
+                : LocationOutbox.OverflowPolicy.DROP_OLDEST);
+        }
+        if (containsAny(config, INTERVAL)) {
+            adaptiveInterval = new AdaptiveInterval(
+                config.getLong("minIntervalMs", DEFAULT_MIN_INTERVAL_MS),
+                config.getLong("maxIntervalMs", DEFAULT_MAX_INTERVAL_MS),
+                (float) config.getDouble("distanceTargetMeters", DEFAULT_DISTANCE_TARGET_M)
+            );
+        }
+        if (config.containsKey("accuracyTargetMeters")) {
+            accuracyTargetMeters = (float) config.getDouble("accuracyTargetMeters", DEFAULT_ACCURACY_TARGET_M);
+        }
+        if (config.containsKey("usePassiveFixes")) {
+            passiveEnabled = config.getBoolean("usePassiveFixes", true);
+            cycleHandler.post(() -> {
+                if (passiveEnabled) {
+                    startPassiveUpdates();
+                } else {
+                    stopPassiveUpdates();
+                }
+            });
+        }
+        if (config.containsKey("metricsUploadIntervalMs")) {
+            uploader.setMetricsUploadInterval(config.getLong("metricsUploadIntervalMs", 0));
+        }
+        if (config.containsKey("wireFormat")) {
+            uploader.setBinaryFormat("binary".equals(config.getString("wireFormat")));
+        }
+        if (containsAny(config, WAKEUPS)) {
+            wakeups.setTier(WakeupScheduler.parseTier(config.getString("alarmTier")),
+                config.getLong("alarmToleranceMs", 0));
+        }
+        if (config.containsKey("historyMaxBytes")) {
+            history.setMaxBytes(config.getLong("historyMaxBytes", 0));
+        }
     }
 
     private void createNotificationChannel() {
@@ -156,86 +572,128 @@ public class LocationForegroundService extends Service {
     }
 
     private void setupAlarm() {
-        Intent alarmIntent = new Intent(this, LocationAlarmReceiver.class);
-        alarmPendingIntent = PendingIntent.getBroadcast(
-            this,
-            0,
-            alarmIntent,
-            PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
-        );
+        if (liveListener != null || profileListener != null) {
+            // GPS is on continuously; the alarm resumes when it stops
+            return;
+        }
 
-        // Schedule alarm to trigger every 5 minutes
-        // Using setExactAndAllowWhileIdle for precise timing even in Doze mode
-        long triggerTime = System.currentTimeMillis() + INTERVAL_MS;
-        
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-            alarmManager.setExactAndAllowWhileIdle(
-                AlarmManager.RTC_WAKEUP,
-                triggerTime,
-                alarmPendingIntent
-            );
-        } else {
-            alarmManager.setExact(
-                AlarmManager.RTC_WAKEUP,
-                triggerTime,
-                alarmPendingIntent
-            );
+        // Interval stretches while parked and shrinks while moving
+        long now = System.currentTimeMillis();
+        if (defaultDueAt <= now) {
+            defaultIntervalMs = adaptiveInterval.nextIntervalMs();
+            defaultDueAt = now + defaultIntervalMs;
         }
+        // One alarm for whichever feed wants a fix first; the others ride along if nearly due
+        long triggerTime = Math.min(defaultDueAt, profiles.nextDueAt());
+        scheduleAlarmAt(triggerTime);
+        Log.d(TAG, "Alarm scheduled for " + (triggerTime - now) + "ms from now");
 
-        Log.d(TAG, "Alarm scheduled for " + INTERVAL_MS + "ms from now");
+        // While parked, let the motion sensor cut a long interval short
+        if (adaptiveInterval.isStationary()) {
+            armMotionTrigger();
+        }
+    }
+
+    private void scheduleAlarmAt(long triggerTime) {
+        // Exact, windowed, inexact or a job, as configured; see WakeupScheduler
+        wakeups.schedule(triggerTime, wakeupIntervalMs());
+        state.saveNextAlarmAt(triggerTime);
+    }
+
+    // The tightest feed sets how late a wakeup may be
+    private long wakeupIntervalMs() {
+        return Math.min(defaultIntervalMs, profiles.shortestIntervalMs());
+    }
+
+    private void armMotionTrigger() {
+        if (significantMotionSensor == null || motionListenerArmed) {
+            return;
+        }
+        if (motionListener == null) {
+            motionListener = new TriggerEventListener() {
+                @Override
+                public void onTrigger(TriggerEvent event) {
+                    cycleHandler.post(() -> {
+                        motionListenerArmed = false;
+                        if (adaptiveInterval.isStationary()) {
+                            Log.d(TAG, "Significant motion - shortening interval");
+                            adaptiveInterval.onMotion();
+                            defaultDueAt = 0;
+                            setupAlarm();
+                        }
+                    });
+                }
+            };
+        }
+        motionListenerArmed = sensorManager.requestTriggerSensor(motionListener, significantMotionSensor);
     }
 
+    // Runs on the cycle thread
     private void fetchAndSendLocation() {
-        // Reset the flag for this new cycle
-        locationUpdateProcessed = false;
-        
+        if (liveListener != null) {
+            Log.d(TAG, "Live trip active - skipping alarm cycle");
+            return;
+        }
+        if (profileListener != null) {
+            Log.d(TAG, "Continuous profile session active - skipping alarm cycle");
+            return;
+        }
+        if (cycleState != CycleState.IDLE) {
+            // A new alarm supersedes whatever the previous cycle was still doing
+            Log.d(TAG, "Abandoning unfinished cycle in state " + cycleState);
+            endCycle();
+        }
+
+        cycleState = CycleState.ACQUIRING;
+        state.setCycleInFlight(true);
+        metrics.increment(TrackingMetrics.CYCLES);
+        cycleAccuracyTarget = cycleAccuracyTarget();
+        fixSelector = new FixSelector(cycleAccuracyTarget);
+        cycleStartElapsed = SystemClock.elapsedRealtime();
+        cycleProviders.clear();
+
         // Acquire wake lock to ensure we can get location
         PowerManager powerManager = (PowerManager) getSystemService(Context.POWER_SERVICE);
         if (wakeLock != null && wakeLock.isHeld()) {
             wakeLock.release();
         }
         wakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, WAKELOCK_TAG);
-        wakeLock.acquire(2 * 60 * 1000L); // Hold for up to 2 minutes
+        wakeLock.acquire(ttffHistory.wakeLockMs()); // Sized from recent time-to-first-fix
+        wakeLockAcquiredAt = SystemClock.elapsedRealtime();
 
         Log.d(TAG, "Fetching fresh location...");
         updateNotification("Getting location...");
 
         if (ActivityCompat.checkSelfPermission(this, android.Manifest.permission.ACCESS_FINE_LOCATION) != PackageManager.PERMISSION_GRANTED) {
             Log.e(TAG, "Location permission not granted");
-            releaseWakeLock();
+            // Keep the schedule alive so tracking resumes once permission is back
+            endCycle();
             return;
         }
 
-        // Remove any previous listener
-        if (singleUpdateListener != null) {
-            locationManager.removeUpdates(singleUpdateListener);
+        // Reuse a fresh fix that navigation or another app already paid for
+        Location passive = usablePassiveLocation();
+        if (passive != null) {
+            // The passive provider also echoes our own requests; those saved nothing
+            if (passive.getElapsedRealtimeNanos() > lastOwnFixNanos) {
+                metrics.increment(TrackingMetrics.ACTIVE_REQUESTS_AVOIDED);
+            }
+            Log.d(TAG, "Using passive fix, skipping GPS/network request ("
+                + metrics.counter(TrackingMetrics.ACTIVE_REQUESTS_AVOIDED) + " active requests avoided)");
+            fixSelector.offer(passive);
+            completeCycle(passive);
+            return;
         }
 
-        // Create a one-time location listener
+        // Create a listener that collects candidates for this cycle
         singleUpdateListener = new LocationListener() {
             @Override
             public void onLocationChanged(Location location) {
-                // Only process the first location update we receive
-                if (locationUpdateProcessed) {
-                    Log.d(TAG, "Location already processed this cycle, ignoring");
+                if (cycleState == CycleState.IDLE || this != singleUpdateListener) {
+                    Log.d(TAG, "Location arrived outside its cycle, ignoring");
                     return;
                 }
-                
-                locationUpdateProcessed = true;
-                Log.d(TAG, "Fresh location received: " + location.getLatitude() + ", " + location.getLongitude());
-                lastLocation = location;
-                
-                // Remove this listener after getting the update
-                locationManager.removeUpdates(this);
-                
-                // Send the location
-                sendLocationToServer();
-                
-                // Schedule next alarm (only once per cycle now)
-                setupAlarm();
-                
-                // Release wake lock
-                releaseWakeLock();
+                onCandidate(location);
             }
 
             @Override
@@ -253,16 +711,18 @@ public class LocationForegroundService extends Service {
         };
 
         // Try GPS first
-        boolean requestSent = false;
+        boolean gpsRequested = false;
+        cycleNetworkRequested = false;
         if (locationManager.isProviderEnabled(LocationManager.GPS_PROVIDER)) {
             locationManager.requestLocationUpdates(
                 LocationManager.GPS_PROVIDER,
                 0,
                 0,
                 singleUpdateListener,
-                Looper.getMainLooper()
+                cycleHandler.getLooper()
             );
-            requestSent = true;
+            gpsRequested = true;
+            gpsOnSince = SystemClock.elapsedRealtime();
             Log.d(TAG, "Requested location from GPS");
         }
 
@@ -273,57 +733,507 @@ public class LocationForegroundService extends Service {
                 0,
                 0,
                 singleUpdateListener,
-                Looper.getMainLooper()
+                cycleHandler.getLooper()
             );
-            requestSent = true;
+            cycleNetworkRequested = true;
             Log.d(TAG, "Requested location from Network");
         }
 
-        if (!requestSent) {
+        if (!gpsRequested && !cycleNetworkRequested) {
             Log.w(TAG, "No location providers available");
             // Try last known location as fallback
             Location lastKnown = locationManager.getLastKnownLocation(LocationManager.GPS_PROVIDER);
             if (lastKnown == null) {
                 lastKnown = locationManager.getLastKnownLocation(LocationManager.NETWORK_PROVIDER);
             }
-            if (lastKnown != null) {
+            // Only if it is newer than what was already sent; an old fix is not a new position
+            Location previous = lastLocation;
+            if (lastKnown != null && (previous == null || lastKnown.getTime() > previous.getTime())) {
                 lastLocation = lastKnown;
                 sendLocationToServer();
             }
+            endCycle();
+            return;
+        }
+
+        if (gpsRequested) {
+            startSkyCheck();
+        }
+
+        // Fallback timeout - if no location in time, end the cycle and reschedule
+        cycleTimeoutMs = ttffHistory.cycleTimeoutMs(gpsRequested, cycleNetworkRequested);
+        Log.d(TAG, "Cycle timeout: " + cycleTimeoutMs + "ms");
+        cycleHandler.postDelayed(cycleTimeout, cycleTimeoutMs);
+    }
+
+    private void onCandidate(Location location) {
+        lastOwnFixNanos = Math.max(lastOwnFixNanos, location.getElapsedRealtimeNanos());
+        String provider = location.getProvider();
+        if (provider != null && cycleProviders.add(provider)) {
+            long ttffMs = SystemClock.elapsedRealtime() - cycleStartElapsed;
+            ttffHistory.record(provider, ttffMs);
+            metrics.record(TrackingMetrics.TTFF_MS_PREFIX + provider, ttffMs);
+            Log.d(TAG, "Time to first fix from " + provider + ": " + ttffMs + "ms");
+        }
+
+        fixSelector.offer(location);
+        Log.d(TAG, "Candidate from " + location.getProvider() + ": "
+            + location.getLatitude() + ", " + location.getLongitude()
+            + " (accuracy " + location.getAccuracy() + "m)");
+
+        if (fixSelector.isSatisfied()) {
+            // Accurate enough - no point keeping the GPS on
+            completeCycle(fixSelector.best());
+        } else if (cycleState == CycleState.ACQUIRING) {
+            // Give a more accurate provider a short window to beat the first fix
+            cycleState = CycleState.SELECTING;
+            cycleHandler.postDelayed(selectionWindowEnd, FIX_SELECTION_WINDOW_MS);
+        }
+    }
+
+    private void onCycleDeadline() {
+        if (cycleState == CycleState.IDLE) {
+            return;
+        }
+        // A provider still silent at the deadline took at least this long; leaving it out
+        // would only ever teach the history that fixes are fast
+        if (gpsOnSince >= 0 && !cycleProviders.contains(LocationManager.GPS_PROVIDER)) {
+            ttffHistory.record(LocationManager.GPS_PROVIDER, cycleTimeoutMs);
+        }
+        if (cycleNetworkRequested && !cycleProviders.contains(LocationManager.NETWORK_PROVIDER)) {
+            ttffHistory.record(LocationManager.NETWORK_PROVIDER, cycleTimeoutMs);
+        }
+        onCycleTimeout();
+    }
+
+    private void onCycleTimeout() {
+        if (cycleState == CycleState.IDLE) {
+            return;
+        }
+        if (fixSelector.best() != null) {
+            completeCycle(fixSelector.best());
+            return;
+        }
+
+        // Resending the previous fix would show up as a new point on the server
+        Log.w(TAG, "Location timeout - no fix this cycle");
+        endCycle();
+    }
+
+    // Underground or indoors the GPS will not get a fix; stop burning power on it early
+    private void startSkyCheck() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+            return;
+        }
+        audibleSatellites = 0;
+        gnssCallback = new GnssStatus.Callback() {
+            @Override
+            public void onSatelliteStatusChanged(GnssStatus status) {
+                int audible = 0;
+                for (int i = 0; i < status.getSatelliteCount(); i++) {
+                    if (status.getCn0DbHz(i) >= MIN_SATELLITE_CN0_DBHZ) {
+                        audible++;
+                    }
+                }
+                audibleSatellites = audible;
+            }
+        };
+        try {
+            locationManager.registerGnssStatusCallback(gnssCallback, cycleHandler);
+        } catch (SecurityException e) {
+            gnssCallback = null;
+            return;
+        }
+        cycleHandler.postDelayed(skyCheck, SKY_CHECK_MS);
+    }
+
+    private void checkSky() {
+        if (cycleState == CycleState.IDLE || gnssCallback == null) {
+            return;
+        }
+        if (audibleSatellites >= MIN_AUDIBLE_SATELLITES || cycleProviders.contains(LocationManager.GPS_PROVIDER)) {
+            stopSkyCheck();
+            return;
+        }
+
+        Log.w(TAG, "No usable sky (" + audibleSatellites + " satellites audible) - giving up on GPS");
+        stopSkyCheck();
+        if (fixSelector.best() != null || !cycleNetworkRequested) {
+            onCycleTimeout();
+        } else {
+            // Keep waiting on the network provider only
+            locationManager.removeUpdates(singleUpdateListener);
+            recordGpsOff();
+            locationManager.requestLocationUpdates(
+                LocationManager.NETWORK_PROVIDER,
+                0,
+                0,
+                singleUpdateListener,
+                cycleHandler.getLooper()
+            );
+        }
+    }
+
+    private void stopSkyCheck() {
+        if (gnssCallback != null) {
+            locationManager.unregisterGnssStatusCallback(gnssCallback);
+            gnssCallback = null;
+        }
+    }
+
+    private void completeCycle(Location location) {
+        Log.d(TAG, "Selected " + location.getProvider() + " fix from "
+            + fixSelector.candidateCount() + " candidates: "
+            + location.getLatitude() + ", " + location.getLongitude()
+            + " (accuracy " + location.getAccuracy() + "m)");
+        lastLocation = location;
+        LocationFix fix = LocationFix.from(location);
+        state.saveLastFix(fix);
+        long nextIntervalMs = adaptiveInterval.onFix(fix);
+        Log.d(TAG, "Next interval: " + nextIntervalMs + "ms");
+
+        // Send the location
+        sendLocationToServer();
+
+        endCycle();
+    }
+
+    /** Stops listening, cancels this cycle's timers, schedules the next alarm and lets the CPU sleep. */
+    private void endCycle() {
+        cycleState = CycleState.IDLE;
+        state.setCycleInFlight(false);
+        cycleHandler.removeCallbacks(cycleTimeout);
+        cycleHandler.removeCallbacks(selectionWindowEnd);
+        cycleHandler.removeCallbacks(skyCheck);
+
+        if (singleUpdateListener != null) {
+            locationManager.removeUpdates(singleUpdateListener);
+            singleUpdateListener = null;
+        }
+        recordGpsOff();
+        stopSkyCheck();
+
+        if (profileListener == null) {
+            // A fix has moved the profiles it served on; any still due got none this cycle
+            profiles.postponeDue(System.currentTimeMillis());
+        }
+
+        // Schedule next alarm (only once per cycle now)
+        setupAlarm();
+
+        // Release wake lock
+        releaseWakeLock();
+    }
+
+    private void startPassiveUpdates() {
+        if (!passiveEnabled || passiveListener != null) {
+            return;
+        }
+        if (ActivityCompat.checkSelfPermission(this, android.Manifest.permission.ACCESS_FINE_LOCATION) != PackageManager.PERMISSION_GRANTED) {
+            return;
+        }
+
+        // Costs nothing by itself: only hears fixes other requests produce
+        // Not a lambda: before API 30 the provider callbacks have no default implementations
+        passiveListener = new LocationListener() {
+            @Override
+            public void onLocationChanged(Location location) {
+                passiveLocation = location;
+            }
+
+            @Override
+            public void onStatusChanged(String provider, int status, android.os.Bundle extras) {}
+
+            @Override
+            public void onProviderEnabled(String provider) {}
+
+            @Override
+            public void onProviderDisabled(String provider) {}
+        };
+        locationManager.requestLocationUpdates(
+            LocationManager.PASSIVE_PROVIDER,
+            PASSIVE_MIN_TIME_MS,
+            0,
+            passiveListener,
+            cycleHandler.getLooper()
+        );
+        Log.d(TAG, "Listening for passive location updates");
+    }
+
+    private void stopPassiveUpdates() {
+        if (passiveListener != null) {
+            locationManager.removeUpdates(passiveListener);
+            passiveListener = null;
+        }
+        passiveLocation = null;
+    }
+
+    private Location usablePassiveLocation() {
+        Location location = passiveLocation;
+        if (!passiveEnabled || location == null) {
+            return null;
+        }
+        // Only a fix taken after the last one used; otherwise the same point would be sent again
+        Location last = lastLocation;
+        if (last != null && location.getElapsedRealtimeNanos() <= last.getElapsedRealtimeNanos()) {
+            return null;
+        }
+        long ageMs = (SystemClock.elapsedRealtimeNanos() - location.getElapsedRealtimeNanos()) / 1_000_000;
+        if (ageMs > PASSIVE_MAX_AGE_MS) {
+            return null;
+        }
+        if (!location.hasAccuracy() || location.getAccuracy() > cycleAccuracyTarget) {
+            return null;
+        }
+        return location;
+    }
+
+    // The tightest accuracy any feed this cycle will serve asks for
+    private float cycleAccuracyTarget() {
+        long now = System.currentTimeMillis();
+        float target = profiles.accuracyTarget(now);
+        if (isDefaultDue(now) || target == Float.MAX_VALUE) {
+            target = Math.min(target, accuracyTargetMeters);
+        }
+        return target;
+    }
+
+    private boolean isDefaultDue(long now) {
+        return defaultDueAt - ProfileScheduler.slackMs(defaultIntervalMs) <= now;
+    }
+
+    // Runs on the cycle thread. Picks alarm cycles or, when a profile wants fixes
+    // more often than alarms can be relied on in Doze, one continuous GPS request
+    private void resumeSchedule() {
+        if (liveListener != null) {
+            return;
+        }
+        long continuousMs = profiles.continuousIntervalMs();
+        if (continuousMs > 0) {
+            startProfileSession(continuousMs);
+        } else {
+            stopProfileSession();
             setupAlarm();
-            releaseWakeLock();
-        }
-
-        // Fallback timeout - if no location after 90 seconds, use last known and reschedule
-        new Handler(Looper.getMainLooper()).postDelayed(() -> {
-            // Only act if we haven't already processed a location
-            if (!locationUpdateProcessed) {
-                Log.w(TAG, "Location timeout - using last known location");
-                locationUpdateProcessed = true;
-                
-                if (singleUpdateListener != null) {
-                    locationManager.removeUpdates(singleUpdateListener);
+        }
+    }
+
+    private void startProfileSession(long intervalMs) {
+        if (profileListener != null && profileSessionIntervalMs == intervalMs) {
+            return;
+        }
+        if (ActivityCompat.checkSelfPermission(this, android.Manifest.permission.ACCESS_FINE_LOCATION) != PackageManager.PERMISSION_GRANTED) {
+            Log.e(TAG, "Location permission not granted");
+            return;
+        }
+        if (profileListener == null) {
+            // Not a lambda: before API 30 the provider callbacks have no default implementations
+            profileListener = new LocationListener() {
+                @Override
+                public void onLocationChanged(Location location) {
+                    onProfileSessionFix(location);
                 }
-                
-                if (lastLocation != null) {
-                    sendLocationToServer();
+
+                @Override
+                public void onStatusChanged(String provider, int status, android.os.Bundle extras) {}
+
+                @Override
+                public void onProviderEnabled(String provider) {}
+
+                @Override
+                public void onProviderDisabled(String provider) {
+                    Log.d(TAG, "Provider disabled during profile session: " + provider);
                 }
-                
-                setupAlarm();
-                releaseWakeLock();
-            } else {
-                Log.d(TAG, "Location timeout fired but location already processed");
+            };
+            gpsOnSince = SystemClock.elapsedRealtime();
+        }
+        if (cycleState != CycleState.IDLE) {
+            endCycle();
+        }
+        wakeups.cancel();
+        state.saveNextAlarmAt(0);
+
+        // Re-requesting with the same listener replaces its interval. No wake lock:
+        // the framework holds one while it delivers each update
+        profileSessionIntervalMs = intervalMs;
+        locationManager.requestLocationUpdates(
+            LocationManager.GPS_PROVIDER,
+            intervalMs,
+            0,
+            profileListener,
+            cycleHandler.getLooper()
+        );
+        Log.d(TAG, "Continuous profile session every " + intervalMs + "ms");
+    }
+
+    // Runs on the cycle thread
+    private void onProfileSessionFix(Location location) {
+        // Held to the same target as a cycle; the next update comes within the interval
+        cycleAccuracyTarget = cycleAccuracyTarget();
+        if (!location.hasAccuracy() || location.getAccuracy() > cycleAccuracyTarget) {
+            Log.d(TAG, "Session fix not accurate enough (" + location.getAccuracy() + "m, target "
+                + cycleAccuracyTarget + "m) - skipped");
+            return;
+        }
+        lastLocation = location;
+        LocationFix fix = LocationFix.from(location);
+        state.saveLastFix(fix);
+        adaptiveInterval.onFix(fix);
+        sendLocationToServer();
+    }
+
+    private void stopProfileSession() {
+        if (profileListener == null) {
+            return;
+        }
+        locationManager.removeUpdates(profileListener);
+        profileListener = null;
+        recordGpsOff();
+        Log.d(TAG, "Continuous profile session stopped");
+    }
+
+    // Runs on the cycle thread
+    private void startLiveTrip(long intervalMs, long maxDurationMs, String liveEndpoint) {
+        if (ActivityCompat.checkSelfPermission(this, android.Manifest.permission.ACCESS_FINE_LOCATION) != PackageManager.PERMISSION_GRANTED) {
+            Log.e(TAG, "Location permission not granted");
+            return;
+        }
+        if (liveListener != null) {
+            stopLiveTrip();
+        }
+        stopProfileSession();
+        if (cycleState != CycleState.IDLE) {
+            endCycle();
+        }
+        wakeups.cancel();
+
+        intervalMs = Math.max(MIN_LIVE_INTERVAL_MS, intervalMs);
+        String url = liveEndpoint != null ? liveEndpoint : uploadPipeline.getEndpoint().replaceAll("/+$", "") + "/live";
+        // Anything the stream cannot deliver goes through the normal outbox instead of being lost
+        liveStreamer = new LiveStreamer(url, uploadPipeline.getAccessToken(), uploadPipeline::enqueue);
+
+        // Not a lambda: before API 30 the provider callbacks have no default implementations
+        liveListener = new LocationListener() {
+            @Override
+            public void onLocationChanged(Location location) {
+                onLiveFix(location);
             }
-        }, 90000); // 90 seconds timeout
+
+            @Override
+            public void onStatusChanged(String provider, int status, android.os.Bundle extras) {}
+
+            @Override
+            public void onProviderEnabled(String provider) {}
+
+            @Override
+            public void onProviderDisabled(String provider) {
+                Log.d(TAG, "Provider disabled during live trip: " + provider);
+            }
+        };
+        locationManager.requestLocationUpdates(
+            LocationManager.GPS_PROVIDER,
+            intervalMs,
+            0,
+            liveListener,
+            cycleHandler.getLooper()
+        );
+        gpsOnSince = SystemClock.elapsedRealtime();
+
+        // Held briefly per fix, not for the whole trip; see onLiveFix
+        PowerManager powerManager = (PowerManager) getSystemService(Context.POWER_SERVICE);
+        liveWakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, LIVE_WAKELOCK_TAG);
+        liveWakeLock.setReferenceCounted(false);
+        liveTripEndsAt = SystemClock.elapsedRealtime() + maxDurationMs;
+        cycleHandler.postDelayed(liveTripExpired, maxDurationMs);
+
+        Log.d(TAG, "Live trip started: every " + intervalMs + "ms to " + url);
+        updateNotification("Live trip active");
+    }
+
+    // Runs on the cycle thread
+    private void onLiveFix(Location location) {
+        // The handler's clock stops while the CPU sleeps, so the expiry is also checked here
+        if (SystemClock.elapsedRealtime() >= liveTripEndsAt) {
+            liveTripExpired.run();
+            return;
+        }
+        lastLocation = location;
+        LocationFix fix = segment(LocationFix.from(location));
+        publishFix(fix);
+        profiles.deliver(fix, System.currentTimeMillis());
+        LiveStreamer streamer = liveStreamer;
+        if (fix.trip != null) {
+            // Live fixes come every second or so, so trip state is saved on events only.
+            // The stream is best-effort; trip records go through the outbox.
+            saveTripState();
+            uploadPipeline.enqueue(fix);
+        } else if (streamer != null) {
+            // Deliberately not simplified: whoever watches a live trip expects every fix as
+            // it is taken, and the stream's cost is the open connection, not the fix count.
+            // The framework's wake lock ends with this callback; keep the CPU up just long
+            // enough for the stream thread to write the fix, then let it sleep until the next
+            liveWakeLock.acquire(LIVE_WRITE_WAKE_MS);
+            streamer.offer(fix);
+        }
+    }
+
+    // Runs on the cycle thread; returns to the alarm-driven cadence
+    private void stopLiveTrip() {
+        if (liveListener == null) {
+            return;
+        }
+        cycleHandler.removeCallbacks(liveTripExpired);
+        locationManager.removeUpdates(liveListener);
+        liveListener = null;
+        recordGpsOff();
+        saveTripState();
+
+        liveStreamer.stop();
+        liveStreamer = null;
+        if (liveWakeLock != null && liveWakeLock.isHeld()) {
+            liveWakeLock.release();
+        }
+        liveWakeLock = null;
+
+        Log.d(TAG, "Live trip stopped - resuming alarm schedule");
+        updateNotification("Location tracking active");
+        resumeSchedule();
+    }
+
+    private void recordGpsOff() {
+        if (gpsOnSince >= 0) {
+            metrics.record(TrackingMetrics.GPS_ON_MS, SystemClock.elapsedRealtime() - gpsOnSince);
+            gpsOnSince = -1;
+        }
     }
 
     private void releaseWakeLock() {
         if (wakeLock != null && wakeLock.isHeld()) {
+            metrics.record(TrackingMetrics.WAKE_LOCK_HOLD_MS, SystemClock.elapsedRealtime() - wakeLockAcquiredAt);
             wakeLock.release();
             Log.d(TAG, "Wake lock released");
         }
     }
 
+    // Attaches a trip record if this fix started, ended or summarizes a trip
+    private LocationFix segment(LocationFix fix) {
+        TripSegmenter segmenter = tripSegmenter;
+        if (segmenter == null) {
+            return fix;
+        }
+        LocationFix annotated = segmenter.onFix(fix);
+        if (annotated.trip != null) {
+            Log.d(TAG, "Segmented " + annotated.trip);
+        }
+        return annotated;
+    }
+
+    private void saveTripState() {
+        TripSegmenter segmenter = tripSegmenter;
+        if (segmenter != null) {
+            state.saveTripState(segmenter.toRecord());
+        }
+    }
+
     private void sendLocationToServer() {
         if (lastLocation == null) {
             Log.w(TAG, "No location available yet");
@@ -337,49 +1247,39 @@ public class LocationForegroundService extends Service {
         Log.d(TAG, "Sending location: " + latitude + ", " + longitude);
         updateNotification("Last: " + String.format(Locale.US, "%.6f, %.6f", latitude, longitude));
 
-        executorService.execute(() -> {
-            HttpURLConnection connection = null;
-            try {
-                URL url = new URL(serverEndpoint);
-                connection = (HttpURLConnection) url.openConnection();
-                connection.setRequestMethod("POST");
-                connection.setRequestProperty("Content-Type", "application/json");
-                
-                // Add authorization header if token is available
-                if (accessToken != null && !accessToken.isEmpty()) {
-                    connection.setRequestProperty("Authorization", "Bearer " + accessToken);
-                    Log.d(TAG, "Authorization header added");
-                }
-                
-                connection.setDoOutput(true);
-                connection.setConnectTimeout(10000);
-                connection.setReadTimeout(10000);
-
-                // Create JSON payload
-                SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
-                sdf.setTimeZone(TimeZone.getTimeZone("UTC"));
-                String timestamp = sdf.format(new Date());
-
-                String jsonPayload = String.format(Locale.US,
-                    "{\"latitude\":%f,\"longitude\":%f,\"timestamp\":\"%s\"}",
-                    latitude, longitude, timestamp
-                );
-
-                OutputStream os = connection.getOutputStream();
-                os.write(jsonPayload.getBytes("UTF-8"));
-                os.close();
-
-                int responseCode = connection.getResponseCode();
-                Log.d(TAG, "Server response: " + responseCode);
-
-            } catch (Exception e) {
-                Log.e(TAG, "Failed to send location: " + e.getMessage());
-            } finally {
-                if (connection != null) {
-                    connection.disconnect();
-                }
+        LocationFix fix = segment(LocationFix.from(lastLocation));
+        saveTripState();
+        // The UI shows every fix, including ones the simplifier keeps off the wire
+        publishFix(fix);
+
+        long now = System.currentTimeMillis();
+        profiles.deliver(fix, now);
+        if (!isDefaultDue(now)) {
+            // Taken for a profile; the session's own feed is not due yet, but a trip record is
+            if (fix.trip != null) {
+                uploadPipeline.enqueue(fix);
             }
-        });
+            return;
+        }
+        defaultIntervalMs = adaptiveInterval.nextIntervalMs();
+        defaultDueAt = now + defaultIntervalMs;
+
+        TrajectorySimplifier simplifier = this.simplifier;
+        if (simplifier != null) {
+            boolean keep = simplifier.accept(fix);
+            metrics.setGauge(TrackingMetrics.SIMPLIFIER_RATIO_X100, Math.round(simplifier.compressionRatio() * 100));
+            metrics.setGauge(TrackingMetrics.SIMPLIFIER_MAX_ERROR_CM, Math.round(simplifier.maxErrorMeters() * 100));
+            if (!keep) {
+                // On the predicted path - the server can reconstruct it without this fix
+                metrics.increment(TrackingMetrics.SIMPLIFIER_SUPPRESSED);
+                Log.d(TAG, "Fix suppressed by simplifier (ratio "
+                    + String.format(Locale.US, "%.2f", simplifier.compressionRatio()) + ")");
+                return;
+            }
+        }
+
+        // Persist first so the fix survives failed uploads and process death
+        uploadPipeline.enqueue(fix);
     }
 
     @Override
@@ -387,22 +1287,50 @@ public class LocationForegroundService extends Service {
         Log.d(TAG, "Service onDestroy");
 
         // Cancel the alarm
-        if (alarmManager != null && alarmPendingIntent != null) {
-            alarmManager.cancel(alarmPendingIntent);
+        if (wakeups != null) {
+            wakeups.cancel();
             Log.d(TAG, "Alarm cancelled");
         }
 
-        // Remove location updates
+        // Drop pending cycle work, then remove location updates
+        cycleHandler.removeCallbacksAndMessages(null);
         if (locationManager != null && singleUpdateListener != null) {
             locationManager.removeUpdates(singleUpdateListener);
         }
 
+        stopSkyCheck();
+        stopPassiveUpdates();
+        if (liveListener != null) {
+            locationManager.removeUpdates(liveListener);
+            liveListener = null;
+        }
+        if (profileListener != null) {
+            locationManager.removeUpdates(profileListener);
+            profileListener = null;
+        }
+        if (liveStreamer != null) {
+            liveStreamer.stop();
+        }
+        if (liveWakeLock != null && liveWakeLock.isHeld()) {
+            liveWakeLock.release();
+        }
+        cycleThread.quitSafely();
+
+        if (motionListenerArmed) {
+            sensorManager.cancelTriggerSensor(motionListener, significantMotionSensor);
+            motionListenerArmed = false;
+        }
+
         // Release wake lock
         releaseWakeLock();
 
-        if (executorService != null) {
-            executorService.shutdown();
+        if (uploadPipeline != null) {
+            uploadPipeline.shutdown();
         }
+        profiles.shutdown();
+
+        // Stopped on purpose: a later start must not resume this session
+        state.clear();
 
         super.onDestroy();
     }
@@ -418,6 +1346,6 @@ public class LocationForegroundService extends Service {
     @Nullable
     @Override
     public IBinder onBind(Intent intent) {
-        return null;
+        return binder;
     }
 }
@@ -0,0 +1,355 @@
+package com.example.app;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * On-device history of every fix taken, queryable by time range, bounding
+ * box or recency without loading it onto the heap.
+ *
+ * Fixes are appended in time order as fixed-width 32-byte records to
+ * memory-mapped segment files of {@link #SEGMENT_CAPACITY} records (2 MB,
+ * about 45 days at one fix a minute). Time order makes each segment its own
+ * time index: a range query binary-searches the mapped records. For space,
+ * every block of {@link #BLOCK_SIZE} records keeps its bounding box in
+ * memory (a few KB per segment), so a box query only scans blocks that can
+ * contain a match. Retention deletes whole segments, oldest first, once the
+ * store exceeds its byte budget.
+ *
+ * Results come back in pages; a page's {@code nextCursor} continues the same
+ * query and stays valid while segments are appended or retired.
+ */
+public class LocationHistory {
+    private static final String TAG = "LocationHistory";
+    private static final String DIR_NAME = "history";
+
+    static final int SEGMENT_CAPACITY = 65536;
+    static final int BLOCK_SIZE = 256;
+    private static final int RECORD_SIZE = 32;
+    private static final int HEADER_SIZE = 16;
+    private static final int MAGIC = 0x4c485331; // "LHS1"
+    private static final long SEGMENT_BYTES = HEADER_SIZE + (long) SEGMENT_CAPACITY * RECORD_SIZE;
+    private static final long DEFAULT_MAX_BYTES = 8 * SEGMENT_BYTES;
+    private static final String[] PROVIDERS = { "", "gps", "network", "fused", "passive" };
+
+    /** One page of results; {@code nextCursor} is -1 when there is nothing more. */
+    public static final class Page {
+        public final List<LocationFix> fixes;
+        public final long nextCursor;
+
+        Page(List<LocationFix> fixes, long nextCursor) {
+            this.fixes = fixes;
+            this.nextCursor = nextCursor;
+        }
+    }
+
+    private static LocationHistory instance;
+
+    private final File dir;
+    private final List<Segment> segments = new ArrayList<>();
+    private long maxBytes = DEFAULT_MAX_BYTES;
+
+    /** One store per process, shared by the service (appends) and the plugin (queries). */
+    public static synchronized LocationHistory get(File filesDir) {
+        if (instance == null) {
+            instance = new LocationHistory(new File(filesDir, DIR_NAME));
+        }
+        return instance;
+    }
+
+    LocationHistory(File dir) {
+        this.dir = dir;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Log.e(TAG, "Cannot create history directory " + dir);
+            return;
+        }
+        File[] files = dir.listFiles((d, name) -> name.startsWith("seg-") && name.endsWith(".bin"));
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            try {
+                long seq = Long.parseLong(file.getName().substring(4, file.getName().length() - 4));
+                segments.add(new Segment(seq, file));
+            } catch (IOException | NumberFormatException e) {
+                Log.e(TAG, "Dropping unreadable history segment " + file.getName() + ": " + e.getMessage());
+                file.delete();
+            }
+        }
+    }
+
+    /** Byte budget for all segments; the oldest segments are deleted beyond it (at least one is kept). */
+    public synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = Math.max(SEGMENT_BYTES, maxBytes);
+        enforceRetention();
+    }
+
+    /** Appends a fix; fixes not newer than the last stored one are ignored. */
+    public synchronized void append(LocationFix fix) {
+        Segment tail = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (tail != null && tail.count > 0 && fix.time <= tail.time(tail.count - 1)) {
+            return;
+        }
+        try {
+            if (tail == null || tail.count == SEGMENT_CAPACITY) {
+                long seq = tail == null ? 0 : tail.seq + 1;
+                tail = new Segment(seq, new File(dir, String.format(Locale.US, "seg-%012d.bin", seq)));
+                segments.add(tail);
+                enforceRetention();
+            }
+            tail.append(fix);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to append to history: " + e.getMessage());
+        }
+    }
+
+    public synchronized long size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.count;
+        }
+        return size;
+    }
+
+    /** Fixes with {@code from <= time <= to}, oldest first. Pass cursor -1 for the first page. */
+    public synchronized Page queryByTime(long from, long to, long cursor, int limit) {
+        return queryInBounds(-90, -180, 90, 180, from, to, cursor, limit);
+    }
+
+    /** Fixes inside the box (degrees, inclusive) and time range, oldest first. */
+    public synchronized Page queryInBounds(double south, double west, double north, double east,
+                                           long from, long to, long cursor, int limit) {
+        int minLat = toE7(south);
+        int maxLat = toE7(north);
+        int minLon = toE7(west);
+        int maxLon = toE7(east);
+        boolean wholeWorld = south <= -90 && north >= 90 && west <= -180 && east >= 180;
+        List<LocationFix> fixes = new ArrayList<>();
+
+        for (Segment segment : segments) {
+            if (segment.count == 0 || segment.time(segment.count - 1) < from || segment.time(0) > to) {
+                continue;
+            }
+            int start = segment.firstAtOrAfter(from);
+            if (cursor >= 0) {
+                long cursorSeq = cursor / SEGMENT_CAPACITY;
+                if (segment.seq < cursorSeq) {
+                    continue;
+                }
+                if (segment.seq == cursorSeq) {
+                    start = Math.max(start, (int) (cursor % SEGMENT_CAPACITY));
+                }
+            }
+
+            for (int block = start / BLOCK_SIZE; block * BLOCK_SIZE < segment.count; block++) {
+                if (!wholeWorld && !segment.blockIntersects(block, minLat, maxLat, minLon, maxLon)) {
+                    continue;
+                }
+                int end = Math.min(segment.count, (block + 1) * BLOCK_SIZE);
+                for (int i = Math.max(start, block * BLOCK_SIZE); i < end; i++) {
+                    long time = segment.time(i);
+                    if (time > to) {
+                        return new Page(fixes, -1);
+                    }
+                    if (wholeWorld || segment.inside(i, minLat, maxLat, minLon, maxLon)) {
+                        if (fixes.size() == limit) {
+                            return new Page(fixes, segment.seq * SEGMENT_CAPACITY + i);
+                        }
+                        fixes.add(segment.read(i));
+                    }
+                }
+            }
+        }
+        return new Page(fixes, -1);
+    }
+
+    /** The newest fixes, newest first; the cursor pages further back in time. */
+    public synchronized Page recent(long cursor, int limit) {
+        List<LocationFix> fixes = new ArrayList<>();
+        for (int s = segments.size() - 1; s >= 0; s--) {
+            Segment segment = segments.get(s);
+            int end = segment.count;
+            if (cursor >= 0) {
+                long cursorSeq = cursor / SEGMENT_CAPACITY;
+                if (segment.seq > cursorSeq) {
+                    continue;
+                }
+                if (segment.seq == cursorSeq) {
+                    end = Math.min(end, (int) (cursor % SEGMENT_CAPACITY));
+                }
+            }
+            for (int i = end - 1; i >= 0; i--) {
+                if (fixes.size() == limit) {
+                    // Cursor is exclusive: the next page starts just before i + 1
+                    return new Page(fixes, segment.seq * SEGMENT_CAPACITY + i + 1);
+                }
+                fixes.add(segment.read(i));
+            }
+        }
+        return new Page(fixes, -1);
+    }
+
+    private void enforceRetention() {
+        while (segments.size() > 1 && segments.size() * SEGMENT_BYTES > maxBytes) {
+            Segment oldest = segments.remove(0);
+            oldest.delete();
+            Log.d(TAG, "Retired history segment " + oldest.seq);
+        }
+    }
+
+    private static int toE7(double degrees) {
+        return (int) Math.round(degrees * 1e7);
+    }
+
+    private static int providerCode(String provider) {
+        for (int i = 1; i < PROVIDERS.length; i++) {
+            if (PROVIDERS[i].equals(provider)) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * One mapped file: a header (magic, record count) then records of
+     * time(8) latE7(4) lonE7(4) accuracy(4) speed(4) bearing(4) provider(1) padding(3).
+     */
+    private static final class Segment {
+        final long seq;
+        final File file;
+        final RandomAccessFile raf;
+        final MappedByteBuffer buffer;
+        int count;
+        // Per-block bounding boxes in 1e-7 degrees
+        final int[] blockMinLat = new int[SEGMENT_CAPACITY / BLOCK_SIZE];
+        final int[] blockMaxLat = new int[SEGMENT_CAPACITY / BLOCK_SIZE];
+        final int[] blockMinLon = new int[SEGMENT_CAPACITY / BLOCK_SIZE];
+        final int[] blockMaxLon = new int[SEGMENT_CAPACITY / BLOCK_SIZE];
+
+        Segment(long seq, File file) throws IOException {
+            this.seq = seq;
+            this.file = file;
+            boolean fresh = !file.exists() || file.length() < SEGMENT_BYTES;
+            raf = new RandomAccessFile(file, "rw");
+            raf.setLength(SEGMENT_BYTES);
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_BYTES);
+
+            if (fresh) {
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, 0);
+            } else if (buffer.getInt(0) != MAGIC) {
+                raf.close();
+                throw new IOException("bad magic");
+            }
+            count = Math.max(0, Math.min(SEGMENT_CAPACITY, buffer.getInt(4)));
+            for (int i = 0; i < count; i++) {
+                index(i, lat(i), lon(i));
+            }
+        }
+
+        void append(LocationFix fix) {
+            int offset = offset(count);
+            int latE7 = toE7(fix.latitude);
+            int lonE7 = toE7(fix.longitude);
+            buffer.putLong(offset, fix.time);
+            buffer.putInt(offset + 8, latE7);
+            buffer.putInt(offset + 12, lonE7);
+            buffer.putFloat(offset + 16, fix.accuracy);
+            buffer.putFloat(offset + 20, fix.speed);
+            buffer.putFloat(offset + 24, fix.bearing);
+            buffer.put(offset + 28, (byte) providerCode(fix.provider));
+            index(count, latE7, lonE7);
+            // Count last, so a crash mid-record leaves the record unused rather than half-written
+            count++;
+            buffer.putInt(4, count);
+        }
+
+        private void index(int i, int latE7, int lonE7) {
+            int block = i / BLOCK_SIZE;
+            if (i % BLOCK_SIZE == 0) {
+                blockMinLat[block] = blockMaxLat[block] = latE7;
+                blockMinLon[block] = blockMaxLon[block] = lonE7;
+                return;
+            }
+            blockMinLat[block] = Math.min(blockMinLat[block], latE7);
+            blockMaxLat[block] = Math.max(blockMaxLat[block], latE7);
+            blockMinLon[block] = Math.min(blockMinLon[block], lonE7);
+            blockMaxLon[block] = Math.max(blockMaxLon[block], lonE7);
+        }
+
+        boolean blockIntersects(int block, int minLat, int maxLat, int minLon, int maxLon) {
+            return blockMinLat[block] <= maxLat && blockMaxLat[block] >= minLat
+                && blockMinLon[block] <= maxLon && blockMaxLon[block] >= minLon;
+        }
+
+        boolean inside(int i, int minLat, int maxLat, int minLon, int maxLon) {
+            int lat = lat(i);
+            int lon = lon(i);
+            return lat >= minLat && lat <= maxLat && lon >= minLon && lon <= maxLon;
+        }
+
+        // Binary search over the mapped time column
+        int firstAtOrAfter(long time) {
+            int lo = 0;
+            int hi = count;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (time(mid) < time) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        long time(int i) {
+            return buffer.getLong(offset(i));
+        }
+
+        int lat(int i) {
+            return buffer.getInt(offset(i) + 8);
+        }
+
+        int lon(int i) {
+            return buffer.getInt(offset(i) + 12);
+        }
+
+        LocationFix read(int i) {
+            int offset = offset(i);
+            int provider = buffer.get(offset + 28);
+            return new LocationFix(
+                buffer.getLong(offset),
+                buffer.getInt(offset + 8) / 1e7,
+                buffer.getInt(offset + 12) / 1e7,
+                buffer.getFloat(offset + 16),
+                buffer.getFloat(offset + 20),
+                buffer.getFloat(offset + 24),
+                provider >= 0 && provider < PROVIDERS.length ? PROVIDERS[provider] : ""
+            );
+        }
+
+        void delete() {
+            try {
+                raf.close();
+            } catch (IOException e) {
+                // Nothing useful to do; the file is removed either way
+            }
+            file.delete();
+        }
+
+        private static int offset(int i) {
+            return HEADER_SIZE + i * RECORD_SIZE;
+        }
+    }
+}
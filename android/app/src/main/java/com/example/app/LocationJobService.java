@@ -0,0 +1,31 @@
+package com.example.app;
+
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+import android.util.Log;
+
+/**
+ * Scheduled by {@link WakeupScheduler} in its job tier. Starts a location
+ * cycle the same way {@link LocationAlarmReceiver} does for alarms; the
+ * job's own wake lock ends when this returns, so the cycle takes its own.
+ */
+public class LocationJobService extends JobService {
+    private static final String TAG = "LocationJobService";
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        Log.d(TAG, "Wakeup job started - fetching location");
+        try {
+            LocationAlarmReceiver.startCycle(this);
+        } catch (IllegalStateException e) {
+            // Tracking stopped and the app is in the background
+            Log.w(TAG, "Location service not running: " + e.getMessage());
+        }
+        return false;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        return false;
+    }
+}
@@ -0,0 +1,450 @@
+package com.example.app;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only on-disk queue of fixes waiting to be uploaded.
+ *
+ * Every fix is written here before any network attempt, so fixes taken in
+ * tunnels or with the process killed mid-upload are sent on the next drain.
+ * The queue is capped at {@code maxRecords}; what happens to a fix that
+ * arrives when it is full is decided by the {@link OverflowPolicy}.
+ *
+ * Fixes go into segment files of up to {@link #SEGMENT_RECORDS} records,
+ * each record framed as length, CRC-32 and a sequence number ahead of the
+ * fix. Uploaded or evicted records are released by sequence number: the
+ * head moves forward (persisted in a small head file) and a segment is
+ * deleted once all of it is released, so draining a backlog never copies
+ * what is left. On open, a record whose frame does not check out, such as
+ * one torn by a crash mid-append, is truncated away with everything after
+ * it in its segment, so the next append starts on a clean boundary.
+ */
+public class LocationOutbox {
+    public enum OverflowPolicy {
+        /** Evict the oldest queued fix to make room (default). */
+        DROP_OLDEST,
+        /** Keep the backlog and let the new fix replace the newest queued one. */
+        COALESCE_LATEST
+    }
+
+    /** Fixes read from the head of the queue; {@link #lastSeq} releases them, including any unreadable ones. */
+    public static final class Batch {
+        public final List<LocationFix> fixes;
+        public final long lastSeq;
+        /** The same for every read of these records while this outbox is open, so a server can drop a repeat. */
+        public final String key;
+
+        Batch(List<LocationFix> fixes, long lastSeq, String key) {
+            this.fixes = fixes;
+            this.lastSeq = lastSeq;
+            this.key = key;
+        }
+    }
+
+    private static final String TAG = "LocationOutbox";
+    private static final String DIR_NAME = "location_outbox";
+    private static final String HEAD_FILE = "head";
+    static final int SEGMENT_RECORDS = 1024;
+    private static final int FRAME_HEADER = 16; // length(4) crc(4) seq(8)
+    private static final int MAX_RECORD_BYTES = 64 * 1024;
+
+    private final File dir;
+    // Prefixes batch keys: sequence numbers restart if the head is lost with every segment, so they are not unique alone
+    private final String id = UUID.randomUUID().toString();
+    private final int maxRecords;
+    private final boolean reportDepth;
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    private boolean loaded = false;   // segments are scanned on first use
+    private long headSeq = 0;         // every record below it has been released
+    private long nextSeq = 0;
+    private int size = 0;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
+
+    // Reused by every append, so writing a fix allocates nothing once the buffer has grown
+    private final PayloadBuffer frame = new PayloadBuffer(128);
+    private final FixRecordEncoder recordEncoder = new FixRecordEncoder();
+    private final ByteBuffer crcHeader = ByteBuffer.allocate(12);
+    private final CRC32 crc = new CRC32();
+
+    public LocationOutbox(File dir, int maxRecords) {
+        this(dir, DIR_NAME, maxRecords, true);
+    }
+
+    /** A separate queue, e.g. for a tracking profile; its depth is not reported as the outbox gauge. */
+    public LocationOutbox(File dir, String name, int maxRecords) {
+        this(dir, name, maxRecords, false);
+    }
+
+    private LocationOutbox(File dir, String name, int maxRecords, boolean reportDepth) {
+        this.dir = new File(dir, name);
+        this.maxRecords = maxRecords;
+        this.reportDepth = reportDepth;
+    }
+
+    public synchronized void setOverflowPolicy(OverflowPolicy policy) {
+        overflowPolicy = policy;
+    }
+
+    public synchronized void append(LocationFix fix) {
+        ensureLoaded();
+        if (overflowPolicy == OverflowPolicy.COALESCE_LATEST && size >= maxRecords) {
+            dropNewest();
+            TrackingMetrics.get().increment(TrackingMetrics.FIXES_DROPPED);
+        }
+        if (!write(fix)) {
+            return;
+        }
+        if (size > maxRecords) {
+            int evicted = size - maxRecords;
+            release(seqAt(evicted - 1));
+            TrackingMetrics.get().add(TrackingMetrics.FIXES_DROPPED, evicted);
+            Log.w(TAG, "Outbox full - evicted " + evicted + " oldest fixes");
+        }
+        reportDepth();
+    }
+
+    /** Returns up to {@code max} of the oldest queued fixes without removing them. */
+    public synchronized List<LocationFix> peek(int max) {
+        return peekBatch(max).fixes;
+    }
+
+    /** Like {@link #peek}, with the sequence number to pass to {@link #release} once they are done with. */
+    public synchronized Batch peekBatch(int max) {
+        ensureLoaded();
+        List<LocationFix> fixes = new ArrayList<>();
+        long firstSeq = -1;
+        long lastSeq = headSeq - 1;
+        for (Segment segment : segments) {
+            if (fixes.size() >= max) {
+                break;
+            }
+            try (RandomAccessFile raf = new RandomAccessFile(segment.file, "r")) {
+                for (int i = segment.head; i < segment.count && fixes.size() < max; i++) {
+                    LocationFix fix = read(raf, segment.offsets[i], segment.seqs[i]);
+                    if (fix != null) {
+                        fixes.add(fix);
+                    } else {
+                        Log.w(TAG, "Skipping unreadable record " + segment.seqs[i]);
+                    }
+                    if (firstSeq < 0) {
+                        firstSeq = segment.seqs[i];
+                    }
+                    lastSeq = segment.seqs[i];
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to read outbox: " + e.getMessage());
+                break;
+            }
+        }
+        return new Batch(fixes, lastSeq, id + "-" + firstSeq + "-" + lastSeq);
+    }
+
+    /**
+     * Drops every record up to and including {@code lastSeq}, typically after
+     * they were uploaded. Records queued or evicted since they were read are
+     * unaffected, since sequence numbers are never reused.
+     */
+    public synchronized int release(long lastSeq) {
+        ensureLoaded();
+        int released = 0;
+        while (!segments.isEmpty()) {
+            Segment segment = segments.peekFirst();
+            while (segment.head < segment.count && segment.seqs[segment.head] <= lastSeq) {
+                segment.head++;
+                released++;
+            }
+            if (segment.head < segment.count) {
+                break;
+            }
+            segments.pollFirst();
+            segment.file.delete();
+        }
+        size -= released;
+        if (lastSeq >= headSeq) {
+            headSeq = lastSeq + 1;
+            writeHead();
+        }
+        reportDepth();
+        return released;
+    }
+
+    public synchronized void clear() {
+        ensureLoaded();
+        for (Segment segment : segments) {
+            segment.file.delete();
+        }
+        segments.clear();
+        new File(dir, HEAD_FILE).delete();
+        dir.delete();
+        headSeq = nextSeq;
+        size = 0;
+        reportDepth();
+    }
+
+    public synchronized int size() {
+        ensureLoaded();
+        return size;
+    }
+
+    /** Bytes of queued records on disk, used as a cheap proxy for payload size. */
+    public synchronized long sizeBytes() {
+        ensureLoaded();
+        long bytes = 0;
+        for (Segment segment : segments) {
+            if (segment.head < segment.count) {
+                bytes += segment.length - segment.offsets[segment.head];
+            }
+        }
+        return bytes;
+    }
+
+    // Sequence number of the index-th queued record
+    private long seqAt(int index) {
+        for (Segment segment : segments) {
+            int live = segment.count - segment.head;
+            if (index < live) {
+                return segment.seqs[segment.head + index];
+            }
+            index -= live;
+        }
+        return nextSeq - 1;
+    }
+
+    private boolean write(LocationFix fix) {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Log.e(TAG, "Cannot create outbox directory " + dir);
+            return false;
+        }
+        Segment tail = segments.peekLast();
+        if (tail == null || tail.count >= SEGMENT_RECORDS) {
+            tail = new Segment(new File(dir, String.format(Locale.US, "seg-%016d.log", nextSeq)));
+            segments.addLast(tail);
+        }
+        encodeFrame(nextSeq, fix);
+        try (RandomAccessFile raf = new RandomAccessFile(tail.file, "rw")) {
+            try {
+                raf.seek(tail.length);
+                raf.write(frame.array(), 0, frame.length());
+                raf.getFD().sync();
+            } catch (IOException e) {
+                // Leave no partial frame behind for the next append to land after
+                raf.setLength(tail.length);
+                throw e;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to append fix: " + e.getMessage());
+            if (tail.count == 0) {
+                segments.pollLast();
+                tail.file.delete();
+            }
+            return false;
+        }
+        tail.add(nextSeq++, tail.length);
+        tail.length += frame.length();
+        size++;
+        return true;
+    }
+
+    // Cuts the newest record off the tail segment; its sequence number is not handed out again
+    private void dropNewest() {
+        Segment tail = segments.peekLast();
+        if (tail == null || tail.head == tail.count) {
+            return;
+        }
+        long offset = tail.offsets[tail.count - 1];
+        try (RandomAccessFile raf = new RandomAccessFile(tail.file, "rw")) {
+            raf.setLength(offset);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to drop newest fix: " + e.getMessage());
+            return;
+        }
+        tail.count--;
+        tail.length = offset;
+        size--;
+        if (tail.head == tail.count) {
+            segments.pollLast();
+            tail.file.delete();
+        }
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Log.e(TAG, "Cannot create outbox directory " + dir);
+        }
+        headSeq = readHead();
+        nextSeq = headSeq;
+        File[] files = dir.listFiles((d, name) -> name.startsWith("seg-") && name.endsWith(".log"));
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                Segment segment = scan(file);
+                while (segment.head < segment.count && segment.seqs[segment.head] < headSeq) {
+                    segment.head++;
+                }
+                if (segment.head == segment.count) {
+                    file.delete();
+                    continue;
+                }
+                segments.addLast(segment);
+                size += segment.count - segment.head;
+                nextSeq = Math.max(nextSeq, segment.seqs[segment.count - 1] + 1);
+            }
+        }
+        reportDepth();
+    }
+
+    // Indexes a segment's records, truncating it at the first frame that does not check out
+    private Segment scan(File file) {
+        Segment segment = new Segment(file);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            long length = raf.length();
+            long offset = 0;
+            long previousSeq = -1;
+            while (offset + FRAME_HEADER <= length) {
+                raf.seek(offset);
+                int recordLength = raf.readInt();
+                int crc = raf.readInt();
+                long seq = raf.readLong();
+                if (recordLength < 0 || recordLength > MAX_RECORD_BYTES
+                        || offset + FRAME_HEADER + recordLength > length || seq <= previousSeq) {
+                    break;
+                }
+                byte[] payload = new byte[recordLength];
+                raf.readFully(payload);
+                if (crc != checksum(seq, payload)) {
+                    break;
+                }
+                segment.add(seq, offset);
+                previousSeq = seq;
+                offset += FRAME_HEADER + recordLength;
+            }
+            if (offset < length) {
+                Log.w(TAG, "Truncating " + (length - offset) + " torn or corrupt bytes from " + file.getName());
+                raf.setLength(offset);
+            }
+            segment.length = offset;
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to scan outbox segment " + file.getName() + ": " + e.getMessage());
+        }
+        return segment;
+    }
+
+    private static LocationFix read(RandomAccessFile raf, long offset, long expectedSeq) throws IOException {
+        raf.seek(offset);
+        int recordLength = raf.readInt();
+        int crc = raf.readInt();
+        long seq = raf.readLong();
+        if (seq != expectedSeq || recordLength < 0 || recordLength > MAX_RECORD_BYTES) {
+            return null;
+        }
+        byte[] payload = new byte[recordLength];
+        raf.readFully(payload);
+        if (crc != checksum(seq, payload)) {
+            return null;
+        }
+        return LocationFix.fromRecord(new String(payload, StandardCharsets.UTF_8));
+    }
+
+    // Header then record, into the reused frame buffer
+    private void encodeFrame(long seq, LocationFix fix) {
+        frame.reset();
+        frame.ensureCapacity(FRAME_HEADER);
+        frame.advance(FRAME_HEADER);
+        recordEncoder.write(fix, frame);
+        int length = frame.length() - FRAME_HEADER;
+        crcHeader.clear();
+        crcHeader.putInt(length).putLong(seq);
+        crc.reset();
+        crc.update(crcHeader.array(), 0, 12);
+        crc.update(frame.array(), FRAME_HEADER, length);
+        byte[] header = frame.array();
+        putBigEndian(header, 0, length, 4);
+        putBigEndian(header, 4, crc.getValue(), 4);
+        putBigEndian(header, 8, seq, 8);
+    }
+
+    private static void putBigEndian(byte[] buf, int offset, long value, int bytes) {
+        for (int i = bytes - 1; i >= 0; i--) {
+            buf[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    private static int checksum(long seq, byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(ByteBuffer.allocate(12).putInt(payload.length).putLong(seq).array());
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    // The head is stored with its complement, so a torn write reads as "start over" rather than as a wrong head
+    private long readHead() {
+        File file = new File(dir, HEAD_FILE);
+        if (!file.exists()) {
+            return 0;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            long head = raf.readLong();
+            return raf.readLong() == ~head ? head : 0;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    // Not synced: losing it to a crash only means sending some fixes twice
+    private void writeHead() {
+        try (RandomAccessFile raf = new RandomAccessFile(new File(dir, HEAD_FILE), "rw")) {
+            raf.writeLong(headSeq);
+            raf.writeLong(~headSeq);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to save outbox head: " + e.getMessage());
+        }
+    }
+
+    private void reportDepth() {
+        if (reportDepth) {
+            TrackingMetrics.get().setGauge(TrackingMetrics.OUTBOX_DEPTH, size);
+        }
+    }
+
+    /** One segment file and the sequence number and offset of each record in it. */
+    private static final class Segment {
+        final File file;
+        long[] seqs = new long[16];
+        long[] offsets = new long[16];
+        int count = 0;
+        int head = 0;     // first record not yet released
+        long length = 0;
+
+        Segment(File file) {
+            this.file = file;
+        }
+
+        void add(long seq, long offset) {
+            if (count == seqs.length) {
+                seqs = Arrays.copyOf(seqs, count * 2);
+                offsets = Arrays.copyOf(offsets, count * 2);
+            }
+            seqs[count] = seq;
+            offsets[count] = offset;
+            count++;
+        }
+    }
+}
@@ -1,10 +1,15 @@
 package com.example.app;
 
 import android.Manifest;
+import android.content.ComponentName;
 import android.content.Intent;
+import android.content.ServiceConnection;
 import android.os.Build;
+import android.os.Bundle;
+import android.os.IBinder;
 import android.util.Log;
 
+import com.getcapacitor.JSArray;
 import com.getcapacitor.JSObject;
 import com.getcapacitor.Plugin;
 import com.getcapacitor.PluginCall;
@@ -13,6 +18,11 @@ import com.getcapacitor.annotation.CapacitorPlugin;
 import com.getcapacitor.annotation.Permission;
 import com.getcapacitor.annotation.PermissionCallback;
 
+import org.json.JSONObject;
+
+import java.util.List;
+import java.util.Map;
+
 @CapacitorPlugin(
     name = "LocationTracker",
     permissions = {
@@ -31,11 +41,39 @@ import com.getcapacitor.annotation.PermissionCallback;
 )
 public class LocationTrackerPlugin extends Plugin {
     private static final String TAG = "LocationTrackerPlugin";
-    private boolean isRunning = false;
     private String currentAccessToken = "";
+    private static final String LOCATION_EVENT = "location";
+    private static final long MIN_PROFILE_INTERVAL_MS = 5 * 1000;
+    private volatile LocationForegroundService service;
+    private final FixEventDispatcher fixEvents = new FixEventDispatcher(this::emitFixes);
+
+    private final ServiceConnection connection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            service = ((LocationForegroundService.LocalBinder) binder).getService();
+            service.setFixListener(fix -> {
+                // No JS listener, no bridge traffic
+                if (hasListeners(LOCATION_EVENT)) {
+                    fixEvents.offer(fix);
+                }
+            });
+            Log.d(TAG, "Bound to location service");
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            // Killed; the binding reconnects by itself when the system restarts it
+            service = null;
+            Log.d(TAG, "Location service disconnected");
+        }
+    };
 
     @PluginMethod
     public void startTracking(PluginCall call) {
+        if (hasEmptyEndpoints(call)) {
+            call.reject("endpoints must list at least one URL");
+            return;
+        }
         String endpoint = call.getString("endpoint", "http://192.168.1.155:3000");
         String accessToken = call.getString("accessToken", "");
         
@@ -56,7 +94,7 @@ public class LocationTrackerPlugin extends Plugin {
             }
         }
 
-        startService(endpoint, accessToken);
+        startService(call, endpoint, accessToken);
 
         JSObject result = new JSObject();
         result.put("success", true);
@@ -79,7 +117,7 @@ public class LocationTrackerPlugin extends Plugin {
             String accessToken = call.getString("accessToken", "");
             currentAccessToken = accessToken;
             
-            startService(endpoint, accessToken);
+            startService(call, endpoint, accessToken);
 
             JSObject result = new JSObject();
             result.put("success", true);
@@ -100,7 +138,7 @@ public class LocationTrackerPlugin extends Plugin {
         currentAccessToken = accessToken;
 
         // Start service even if background permission denied (will work in foreground)
-        startService(endpoint, accessToken);
+        startService(call, endpoint, accessToken);
 
         JSObject result = new JSObject();
         result.put("success", true);
@@ -115,8 +153,9 @@ public class LocationTrackerPlugin extends Plugin {
         call.resolve(result);
     }
 
-    private void startService(String endpoint, String accessToken) {
-        if (isRunning) {
+    private void startService(PluginCall call, String endpoint, String accessToken) {
+        // A session waiting for its sticky restart is simply started again with the new options
+        if (service != null) {
             Log.d(TAG, "Service already running");
             return;
         }
@@ -124,22 +163,161 @@ public class LocationTrackerPlugin extends Plugin {
         Intent serviceIntent = new Intent(getContext(), LocationForegroundService.class);
         serviceIntent.putExtra("endpoint", endpoint);
         serviceIntent.putExtra("accessToken", accessToken);
+        serviceIntent.putExtras(buildOptions(call, false));
+        sendToService(serviceIntent);
 
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            getContext().startForegroundService(serviceIntent);
-        } else {
-            getContext().startService(serviceIntent);
+        Log.d(TAG, "Location service started");
+    }
+
+    /**
+     * Maps plugin options to service extras. With {@code onlyGiven} options the
+     * call does not mention are left out, and the service keeps their current
+     * values; otherwise they get their defaults.
+     */
+    private static Bundle buildOptions(PluginCall call, boolean onlyGiven) {
+        Bundle options = new Bundle();
+
+        // Optional upload batching: flush after N fixes, T seconds or a byte budget
+        if (wants(call, onlyGiven, "batchSize")) {
+            options.putInt("batchSize", call.getInt("batchSize", 1));
+        }
+        if (wants(call, onlyGiven, "batchMaxDelaySeconds")) {
+            options.putLong("batchMaxDelayMs", call.getInt("batchMaxDelaySeconds", 0) * 1000L);
+        }
+        if (wants(call, onlyGiven, "batchMaxBytes")) {
+            options.putLong("batchMaxBytes", (long) call.getInt("batchMaxBytes", 0));
+        }
+        // Adaptive cycle interval bounds and the distance to cover between fixes while moving
+        if (wants(call, onlyGiven, "minIntervalSeconds")) {
+            options.putLong("minIntervalMs", call.getInt("minIntervalSeconds", 120) * 1000L);
+        }
+        if (wants(call, onlyGiven, "maxIntervalSeconds")) {
+            options.putLong("maxIntervalMs", call.getInt("maxIntervalSeconds", 1800) * 1000L);
+        }
+        if (wants(call, onlyGiven, "distanceTargetMeters")) {
+            options.putDouble("distanceTargetMeters", call.getDouble("distanceTargetMeters", 1000.0));
         }
 
-        isRunning = true;
-        Log.d(TAG, "Location service started");
+        // Stop the fix selection window early once a fix is this accurate
+        if (wants(call, onlyGiven, "accuracyTargetMeters")) {
+            options.putDouble("accuracyTargetMeters", call.getDouble("accuracyTargetMeters", 20.0));
+        }
+
+        // Skip the GPS/network request when another app produced a fresh enough fix
+        if (wants(call, onlyGiven, "usePassiveFixes")) {
+            options.putBoolean("usePassiveFixes", call.getBoolean("usePassiveFixes", true));
+        }
+
+        // Piggyback a metrics snapshot on at most one upload per interval (0 = off)
+        if (wants(call, onlyGiven, "metricsUploadIntervalSeconds")) {
+            options.putLong("metricsUploadIntervalMs", call.getInt("metricsUploadIntervalSeconds", 0) * 1000L);
+        }
+
+        // Hold uploads for a cheap network (Wi-Fi or radio already up) for at most this long; 0 = send at once
+        if (wants(call, onlyGiven, "maxDeliveryLatencySeconds")) {
+            options.putLong("maxDeliveryLatencyMs", call.getInt("maxDeliveryLatencySeconds", 0) * 1000L);
+        }
+
+        // Drop fixes within this many metres of the dead-reckoned path (0 = send every fix),
+        // still sending one per heartbeat while stationary
+        if (wants(call, onlyGiven, "simplifyToleranceMeters")) {
+            options.putDouble("simplifyToleranceMeters", call.getDouble("simplifyToleranceMeters", 0.0));
+        }
+        if (wants(call, onlyGiven, "heartbeatSeconds")) {
+            options.putLong("heartbeatMs", call.getInt("heartbeatSeconds", 900) * 1000L);
+        }
+
+        // When the outbox is full: "dropOldest" (default) or "coalesceLatest"
+        if (wants(call, onlyGiven, "queueFullPolicy")) {
+            options.putString("queueFullPolicy", call.getString("queueFullPolicy", "dropOldest"));
+        }
+
+        // "json" (default) or "binary" for the compact trajectory format
+        if (wants(call, onlyGiven, "wireFormat")) {
+            options.putString("wireFormat", call.getString("wireFormat", "json"));
+        }
+
+        // Several ingest endpoints, as URLs or {url, weight}: "ordered" failover (default) or
+        // "latency" to prefer the fastest; hedgeAfterMs > 0 also sends a slow batch to a second one
+        // Only when given: without it the session keeps the endpoints it has (see hasEmptyEndpoints)
+        if (call.hasOption("endpoints")) {
+            options.putString("endpoints", endpointSpec(call.getArray("endpoints")));
+        }
+        if (wants(call, onlyGiven, "endpointSelection")) {
+            options.putString("endpointSelection", call.getString("endpointSelection", "ordered"));
+        }
+        if (wants(call, onlyGiven, "hedgeAfterMs")) {
+            options.putLong("hedgeAfterMs", (long) call.getInt("hedgeAfterMs", 0));
+        }
+
+        // Split fixes into trips and stops on the device and upload start, end and
+        // running summary records with the fixes (on by default)
+        if (wants(call, onlyGiven, "tripSegmentation")) {
+            options.putBoolean("tripSegmentation", call.getBoolean("tripSegmentation", true));
+        }
+        if (wants(call, onlyGiven, "tripStartDistanceMeters")) {
+            options.putDouble("tripStartDistanceMeters", call.getDouble("tripStartDistanceMeters", 200.0));
+        }
+        if (wants(call, onlyGiven, "tripStopRadiusMeters")) {
+            options.putDouble("tripStopRadiusMeters", call.getDouble("tripStopRadiusMeters", 100.0));
+        }
+        if (wants(call, onlyGiven, "tripDwellSeconds")) {
+            options.putLong("tripDwellMs", call.getInt("tripDwellSeconds", 600) * 1000L);
+        }
+        if (wants(call, onlyGiven, "tripSummaryIntervalSeconds")) {
+            options.putLong("tripSummaryIntervalMs", call.getInt("tripSummaryIntervalSeconds", 900) * 1000L);
+        }
+
+        // How cycles are woken: "exact" (default), "window", "inexact" or "job". Looser tiers
+        // let the system batch our wakeups with other apps'; the tolerance is how late one may
+        // fire (0 = a quarter of the interval, at most a minute)
+        if (wants(call, onlyGiven, "alarmTier")) {
+            options.putString("alarmTier", call.getString("alarmTier", "exact"));
+        }
+        if (wants(call, onlyGiven, "alarmToleranceSeconds")) {
+            options.putLong("alarmToleranceMs", call.getInt("alarmToleranceSeconds", 0) * 1000L);
+        }
+
+        // On-device history budget; the oldest fixes are deleted beyond it
+        if (wants(call, onlyGiven, "historyMaxMegabytes")) {
+            options.putLong("historyMaxBytes", call.getInt("historyMaxMegabytes", 16) * 1024L * 1024L);
+        }
+        return options;
+    }
+
+    // One endpoint per line: the URL, then its weight if given
+    private static String endpointSpec(JSArray endpoints) {
+        StringBuilder spec = new StringBuilder();
+        for (int i = 0; endpoints != null && i < endpoints.length(); i++) {
+            JSONObject object = endpoints.optJSONObject(i);
+            String url = object != null ? object.optString("url", "") : endpoints.optString(i);
+            if (url.isEmpty()) {
+                continue;
+            }
+            spec.append(url);
+            if (object != null) {
+                spec.append(' ').append(object.optDouble("weight", 1));
+            }
+            spec.append('\n');
+        }
+        return spec.toString();
+    }
+
+    private static boolean wants(PluginCall call, boolean onlyGiven, String name) {
+        return !onlyGiven || call.hasOption(name);
+    }
+
+    // An endpoints list with no usable URL is a mistake, not a way to clear the list
+    private static boolean hasEmptyEndpoints(PluginCall call) {
+        return call.hasOption("endpoints") && endpointSpec(call.getArray("endpoints")).isEmpty();
     }
 
     @PluginMethod
     public void stopTracking(PluginCall call) {
         Intent serviceIntent = new Intent(getContext(), LocationForegroundService.class);
         getContext().stopService(serviceIntent);
-        isRunning = false;
+        // Also ends a session whose service is currently killed and waiting to restart
+        new ServiceState(getContext()).clear();
 
         JSObject result = new JSObject();
         result.put("success", true);
@@ -152,29 +330,354 @@ public class LocationTrackerPlugin extends Plugin {
         String newAccessToken = call.getString("accessToken", "");
         currentAccessToken = newAccessToken;
 
-        // Send the updated token to the running service
+        LocationForegroundService bound = service;
+        if (bound != null) {
+            // Same process: a direct call instead of an intent through the activity manager
+            bound.updateAccessToken(newAccessToken);
+            JSObject result = new JSObject();
+            result.put("success", true);
+            result.put("message", "Access token updated successfully");
+            call.resolve(result);
+            return;
+        }
+
+        // Service not bound (not started yet or being restarted): fall back to an intent
         Intent serviceIntent = new Intent(getContext(), LocationForegroundService.class);
         serviceIntent.setAction("UPDATE_TOKEN");
         serviceIntent.putExtra("accessToken", newAccessToken);
+        sendToService(serviceIntent);
 
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            getContext().startForegroundService(serviceIntent);
+        Log.d(TAG, "Token update sent to service");
+
+        JSObject result = new JSObject();
+        result.put("success", true);
+        result.put("message", "Access token updated successfully");
+        call.resolve(result);
+    }
+
+    /** Changes options of the running session; only the options given are touched. */
+    @PluginMethod
+    public void configure(PluginCall call) {
+        if (hasEmptyEndpoints(call)) {
+            call.reject("endpoints must list at least one URL");
+            return;
+        }
+        Bundle options = buildOptions(call, true);
+        if (call.hasOption("endpoint")) {
+            options.putString("endpoint", call.getString("endpoint"));
+        }
+
+        LocationForegroundService bound = service;
+        if (bound != null) {
+            bound.updateConfig(options);
+        } else if (isTrackingActive()) {
+            // Killed and waiting for its sticky restart, which reads the saved config
+            new ServiceState(getContext()).mergeConfig(options);
         } else {
-            getContext().startService(serviceIntent);
+            call.reject("Location tracking is not running");
+            return;
         }
 
-        Log.d(TAG, "Token update sent to service");
+        JSObject result = new JSObject();
+        result.put("success", true);
+        result.put("message", "Configuration updated");
+        call.resolve(result);
+    }
+
+    @PluginMethod
+    public void startLiveTrip(PluginCall call) {
+        if (!isTrackingActive()) {
+            call.reject("Location tracking is not running");
+            return;
+        }
+
+        // Switch the running service to continuous updates streamed over one connection
+        long intervalMs = (long) (call.getDouble("intervalSeconds", 3.0) * 1000);
+        long maxDurationMs = (long) (call.getDouble("maxDurationMinutes", 240.0) * 60 * 1000);
+        String liveEndpoint = call.getString("liveEndpoint");
+
+        LocationForegroundService bound = service;
+        if (bound != null) {
+            bound.beginLiveTrip(intervalMs, maxDurationMs, liveEndpoint);
+        } else {
+            // Killed: the service starts in the foreground before it reads the action
+            Intent serviceIntent = new Intent(getContext(), LocationForegroundService.class);
+            serviceIntent.setAction("START_LIVE_TRIP");
+            serviceIntent.putExtra("liveIntervalMs", intervalMs);
+            serviceIntent.putExtra("liveMaxDurationMs", maxDurationMs);
+            if (liveEndpoint != null) {
+                serviceIntent.putExtra("liveEndpoint", liveEndpoint);
+            }
+            sendToService(serviceIntent);
+        }
 
         JSObject result = new JSObject();
         result.put("success", true);
-        result.put("message", "Access token updated successfully");
+        result.put("message", "Live trip started");
+        call.resolve(result);
+    }
+
+    @PluginMethod
+    public void stopLiveTrip(PluginCall call) {
+        LocationForegroundService bound = service;
+        if (bound != null) {
+            bound.endLiveTrip();
+        } else if (isTrackingActive()) {
+            Intent serviceIntent = new Intent(getContext(), LocationForegroundService.class);
+            serviceIntent.setAction("STOP_LIVE_TRIP");
+            sendToService(serviceIntent);
+        }
+
+        JSObject result = new JSObject();
+        result.put("success", true);
+        result.put("message", "Live trip stopped");
         call.resolve(result);
     }
 
+    @PluginMethod
+    public void getMetrics(PluginCall call) {
+        call.resolve(toJSObject(TrackingMetrics.get().snapshot()));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static JSObject toJSObject(Map<String, Object> map) {
+        JSObject object = new JSObject();
+        for (Map.Entry<String, Object> e : map.entrySet()) {
+            Object value = e.getValue();
+            if (value instanceof Map) {
+                object.put(e.getKey(), toJSObject((Map<String, Object>) value));
+            } else {
+                object.put(e.getKey(), value);
+            }
+        }
+        return object;
+    }
+
     @PluginMethod
     public void isTracking(PluginCall call) {
         JSObject result = new JSObject();
-        result.put("isTracking", isRunning);
+        result.put("isTracking", isTrackingActive());
+        call.resolve(result);
+    }
+
+    @PluginMethod
+    public void getStatus(PluginCall call) {
+        JSObject result = new JSObject();
+        result.put("isTracking", isTrackingActive());
+        LocationForegroundService bound = service;
+        result.put("serviceRunning", bound != null);
+        if (bound != null) {
+            TrackingStatus status = bound.getStatus();
+            result.put("cycleState", status.cycleState);
+            result.put("liveTrip", status.liveTrip);
+            result.put("queuedFixes", status.queuedFixes);
+            if (status.nextAlarmAt > 0) {
+                result.put("nextAlarmAt", status.nextAlarmAt);
+            }
+            if (status.lastFix != null) {
+                result.put("lastFix", toJSObject(status.lastFix));
+            }
+            JSArray profiles = new JSArray();
+            for (TrackingStatus.ProfileStatus profile : status.profiles) {
+                JSObject object = new JSObject();
+                object.put("name", profile.name);
+                object.put("intervalSeconds", profile.intervalMs / 1000.0);
+                object.put("accuracyMeters", profile.accuracyMeters);
+                object.put("endpoint", profile.endpoint);
+                object.put("queuedFixes", profile.queuedFixes);
+                if (profile.nextDueAt > 0) {
+                    object.put("nextDueAt", profile.nextDueAt);
+                }
+                profiles.put(object);
+            }
+            result.put("profiles", profiles);
+        }
+        call.resolve(result);
+    }
+
+    /**
+     * Adds or replaces a named tracking profile: its own interval, accuracy and
+     * endpoint, served from the same location session as every other profile.
+     * Without an accessToken it uses the session's.
+     */
+    @PluginMethod
+    public void addProfile(PluginCall call) {
+        LocationForegroundService bound = service;
+        if (bound == null) {
+            call.reject("Location tracking is not running");
+            return;
+        }
+        String name = call.getString("name");
+        String endpoint = call.getString("endpoint");
+        if (!ProfileScheduler.isValidName(name)) {
+            call.reject("name must be 1-32 letters, digits, '-' or '_'");
+            return;
+        }
+        if (endpoint == null) {
+            call.reject("endpoint is required");
+            return;
+        }
+        long intervalMs = (long) (call.getDouble("intervalSeconds", 300.0) * 1000);
+        bound.putProfile(name, Math.max(MIN_PROFILE_INTERVAL_MS, intervalMs),
+            call.getDouble("accuracyMeters", 50.0).floatValue(), endpoint, call.getString("accessToken"));
+        call.resolve();
+    }
+
+    @PluginMethod
+    public void removeProfile(PluginCall call) {
+        LocationForegroundService bound = service;
+        if (bound == null) {
+            call.reject("Location tracking is not running");
+            return;
+        }
+        JSObject result = new JSObject();
+        result.put("removed", bound.removeProfile(call.getString("name", "")));
         call.resolve(result);
     }
+
+    // Started in the foreground: the service may be dead and this intent its cold start
+    private void sendToService(Intent serviceIntent) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            getContext().startForegroundService(serviceIntent);
+        } else {
+            getContext().startService(serviceIntent);
+        }
+    }
+
+    // A session is active from start until stopTracking, across service kills and
+    // sticky restarts, which is exactly while the saved service state exists
+    private boolean isTrackingActive() {
+        return service != null || new ServiceState(getContext()).isActive();
+    }
+
+    @Override
+    public void load() {
+        // Flags 0: do not create the service, just connect whenever it is running
+        Intent intent = new Intent(getContext(), LocationForegroundService.class);
+        getContext().bindService(intent, connection, 0);
+    }
+
+    /**
+     * Location events: at most one per {@code throttleMs} (default 1000), with
+     * fixes in between coalesced into it, up to {@code maxBatch} (default 50).
+     */
+    @PluginMethod
+    public void setLocationEventOptions(PluginCall call) {
+        fixEvents.setOptions(call.getInt("throttleMs", 1000), call.getInt("maxBatch", 50));
+        call.resolve();
+    }
+
+    /**
+     * History queries. Each returns {@code fixes} plus a {@code nextCursor} when
+     * more match; pass it back as {@code cursor} with the same query for the
+     * next page. Pages hold at most {@code limit} fixes (default 500).
+     */
+    @PluginMethod
+    public void queryHistory(PluginCall call) {
+        LocationHistory.Page page = history().queryByTime(
+            call.getLong("from", 0L), call.getLong("to", Long.MAX_VALUE),
+            cursor(call), limit(call));
+        call.resolve(toJSObject(page));
+    }
+
+    @PluginMethod
+    public void queryHistoryInBounds(PluginCall call) {
+        Double south = call.getDouble("south");
+        Double west = call.getDouble("west");
+        Double north = call.getDouble("north");
+        Double east = call.getDouble("east");
+        if (south == null || west == null || north == null || east == null) {
+            call.reject("south, west, north and east are required");
+            return;
+        }
+        LocationHistory.Page page = history().queryInBounds(south, west, north, east,
+            call.getLong("from", 0L), call.getLong("to", Long.MAX_VALUE),
+            cursor(call), limit(call));
+        call.resolve(toJSObject(page));
+    }
+
+    /** Newest first; the cursor pages further back. */
+    @PluginMethod
+    public void getRecentHistory(PluginCall call) {
+        call.resolve(toJSObject(history().recent(cursor(call), limit(call))));
+    }
+
+    private LocationHistory history() {
+        return LocationHistory.get(getContext().getFilesDir());
+    }
+
+    private static long cursor(PluginCall call) {
+        return call.getLong("cursor", -1L);
+    }
+
+    private static int limit(PluginCall call) {
+        return Math.max(1, Math.min(5000, call.getInt("limit", 500)));
+    }
+
+    private static JSObject toJSObject(LocationHistory.Page page) {
+        JSArray array = new JSArray();
+        for (LocationFix fix : page.fixes) {
+            array.put(toJSObject(fix));
+        }
+        JSObject result = new JSObject();
+        result.put("fixes", array);
+        if (page.nextCursor >= 0) {
+            result.put("nextCursor", page.nextCursor);
+        }
+        return result;
+    }
+
+    private void emitFixes(List<LocationFix> fixes, int dropped) {
+        JSArray array = new JSArray();
+        for (LocationFix fix : fixes) {
+            array.put(toJSObject(fix));
+        }
+        JSObject event = new JSObject();
+        event.put("fixes", array);
+        event.put("latest", toJSObject(fixes.get(fixes.size() - 1)));
+        if (dropped > 0) {
+            event.put("dropped", dropped);
+        }
+        notifyListeners(LOCATION_EVENT, event);
+    }
+
+    private static JSObject toJSObject(LocationFix fix) {
+        JSObject object = new JSObject();
+        object.put("latitude", fix.latitude);
+        object.put("longitude", fix.longitude);
+        object.put("time", fix.time);
+        object.put("provider", fix.provider);
+        if (fix.accuracy >= 0) {
+            object.put("accuracy", fix.accuracy);
+        }
+        if (fix.speed >= 0) {
+            object.put("speed", fix.speed);
+        }
+        if (fix.bearing >= 0) {
+            object.put("bearing", fix.bearing);
+        }
+        return object;
+    }
+
+    // Nobody is looking while the WebView is in the background
+    @Override
+    protected void handleOnPause() {
+        fixEvents.pause();
+    }
+
+    @Override
+    protected void handleOnResume() {
+        fixEvents.resume();
+    }
+
+    @Override
+    protected void handleOnDestroy() {
+        LocationForegroundService bound = service;
+        if (bound != null) {
+            bound.setFixListener(null);
+        }
+        fixEvents.pause();
+        getContext().unbindService(connection);
+        service = null;
+    }
 }
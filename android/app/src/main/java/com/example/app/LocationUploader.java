@@ -0,0 +1,263 @@
+package com.example.app;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Posts fixes to the ingest endpoint, either one JSON object per request,
+ * a gzip-compressed JSON array per batch, or a {@link TrajectoryCodec}
+ * payload when the binary format is enabled.
+ *
+ * Lives as long as the service and never calls disconnect() after a clean
+ * exchange: the response is read to the end so HttpURLConnection returns the
+ * socket to its keep-alive pool and the next upload skips the TCP/TLS
+ * handshake. Each upload logs its connect, time-to-first-byte and total
+ * latency, and running totals of requests and bytes so the effect of
+ * batching on radio wakeups and bytes per fix shows up in the log.
+ */
+public class LocationUploader {
+    private static final String TAG = "LocationUploader";
+    private static final int CONNECT_TIMEOUT_MS = 10000;
+    private static final int READ_TIMEOUT_MS = 10000;
+
+    private long uploads = 0;
+    private long fixesSent = 0;
+    private long rawBytes = 0;
+    private long wireBytes = 0;
+    private long connectMsTotal = 0;
+    private final Settings settings;
+
+    // Reused across uploads; upload() only runs on one upload thread, see sibling()
+    private final PayloadBuffer payload = new PayloadBuffer(1024);
+    private final PayloadBuffer compressed = new PayloadBuffer(512);
+    private final FixJsonEncoder jsonEncoder = new FixJsonEncoder();
+    private final GzipCompressor gzipCompressor = new GzipCompressor();
+    private final byte[] responseBuffer = new byte[512];
+
+    private final TrackingMetrics metrics = TrackingMetrics.get();
+
+    // Shared by siblings so a setting or a server's format refusal applies to all of them
+    private static final class Settings {
+        volatile boolean binaryFormat = false;
+        // Per endpoint URL: siblings may post to different servers (profiles, failover)
+        final Set<String> binaryRejectedBy = ConcurrentHashMap.newKeySet();
+        volatile long metricsIntervalMs = 0;
+        volatile long metricsSentAt = 0;
+    }
+
+    public LocationUploader() {
+        this(new Settings());
+    }
+
+    private LocationUploader(Settings settings) {
+        this.settings = settings;
+    }
+
+    /**
+     * An uploader with its own buffers for another upload thread, sharing
+     * this one's format and metrics settings.
+     */
+    public LocationUploader sibling() {
+        return new LocationUploader(settings);
+    }
+
+    /** Prefer the binary {@link TrajectoryCodec} format; falls back to JSON if the server refuses it. */
+    public void setBinaryFormat(boolean enabled) {
+        settings.binaryFormat = enabled;
+    }
+
+    /**
+     * Attach a metrics snapshot as an X-Tracking-Metrics header to at most
+     * one upload per interval; 0 disables it.
+     */
+    public void setMetricsUploadInterval(long intervalMs) {
+        settings.metricsIntervalMs = intervalMs;
+    }
+
+    /** Sends {@code fixes} in one request; success means the server accepted all of them. */
+    public UploadResult upload(String endpoint, String accessToken, List<LocationFix> fixes, boolean batch) {
+        return upload(endpoint, accessToken, fixes, batch, null);
+    }
+
+    /** As above, with a key the server uses to drop a repeat of the same batch; null sends none. */
+    public UploadResult upload(String endpoint, String accessToken, List<LocationFix> fixes, boolean batch,
+                               String batchKey) {
+        return upload(endpoint, accessToken, fixes, batch, batchKey, CONNECT_TIMEOUT_MS);
+    }
+
+    /** As above, giving up on connecting after {@code connectTimeoutMs}, e.g. when another endpoint could take it. */
+    public UploadResult upload(String endpoint, String accessToken, List<LocationFix> fixes, boolean batch,
+                               String batchKey, int connectTimeoutMs) {
+        if (fixes.isEmpty()) {
+            return new UploadResult(HttpURLConnection.HTTP_NO_CONTENT, 0);
+        }
+
+        // The binary format has no room for trip records; such batches go as JSON
+        boolean binary = settings.binaryFormat && !settings.binaryRejectedBy.contains(endpoint)
+            && !hasTripRecords(fixes);
+        boolean gzip = batch && !binary;
+        PayloadBuffer body = payload;
+        payload.reset();
+        try {
+            if (binary) {
+                TrajectoryCodec.encode(fixes, payload);
+            } else if (batch) {
+                jsonEncoder.writeArray(fixes, payload);
+            } else {
+                jsonEncoder.writeFix(fixes.get(0), payload);
+            }
+            if (gzip) {
+                gzipCompressor.compress(payload, compressed);
+                body = compressed;
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Failed to encode payload: " + e.getMessage());
+            return UploadResult.networkError();
+        }
+        int rawLength = payload.length();
+
+        HttpURLConnection connection = null;
+        boolean reusable = false;
+        long start = SystemClock.elapsedRealtime();
+        try {
+            URL url = new URL(endpoint);
+            connection = (HttpURLConnection) url.openConnection();
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("Connection", "keep-alive");
+            connection.setRequestProperty("Content-Type", binary ? TrajectoryCodec.CONTENT_TYPE : "application/json");
+            if (gzip) {
+                connection.setRequestProperty("Content-Encoding", "gzip");
+            }
+
+            if (batchKey != null) {
+                connection.setRequestProperty("Idempotency-Key", batchKey);
+            }
+
+            // Add authorization header if token is available
+            if (accessToken != null && !accessToken.isEmpty()) {
+                connection.setRequestProperty("Authorization", "Bearer " + accessToken);
+            }
+
+            boolean sendMetrics = settings.metricsIntervalMs > 0 && start - settings.metricsSentAt >= settings.metricsIntervalMs;
+            if (sendMetrics) {
+                connection.setRequestProperty("X-Tracking-Metrics", metrics.toJson());
+            }
+
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(body.length());
+            connection.setConnectTimeout(connectTimeoutMs);
+            connection.setReadTimeout(READ_TIMEOUT_MS);
+
+            // Near zero when the pooled socket from the previous upload is reused
+            connection.connect();
+            long connectMs = SystemClock.elapsedRealtime() - start;
+
+            OutputStream os = connection.getOutputStream();
+            body.writeTo(os);
+            os.close();
+
+            int responseCode = connection.getResponseCode();
+            long ttfbMs = SystemClock.elapsedRealtime() - start;
+
+            // Read the response to the end so the socket goes back to the pool
+            drainResponse(connection, responseCode);
+            reusable = true;
+            long totalMs = SystemClock.elapsedRealtime() - start;
+            Log.d(TAG, "Server response: " + responseCode
+                + " (connect " + connectMs + "ms, ttfb " + ttfbMs + "ms, total " + totalMs + "ms)");
+            metrics.increment(TrackingMetrics.UPLOAD_REQUESTS);
+            metrics.increment(TrackingMetrics.UPLOAD_STATUS_PREFIX + responseCode);
+            metrics.record(TrackingMetrics.UPLOAD_LATENCY_MS, totalMs);
+            metrics.add(TrackingMetrics.BYTES_SENT, body.length());
+
+            if (binary && responseCode == HttpURLConnection.HTTP_UNSUPPORTED_TYPE) {
+                // Endpoint does not speak the binary format - use JSON for it from now on
+                Log.w(TAG, endpoint + " rejected " + TrajectoryCodec.CONTENT_TYPE + ", falling back to JSON");
+                settings.binaryRejectedBy.add(endpoint);
+                return upload(endpoint, accessToken, fixes, batch, batchKey, connectTimeoutMs);
+            }
+            if (responseCode < 200 || responseCode >= 300) {
+                return new UploadResult(responseCode, retryAfterMs(connection, responseCode));
+            }
+
+            if (sendMetrics) {
+                settings.metricsSentAt = start;
+            }
+            metrics.add(TrackingMetrics.UPLOAD_FIXES, fixes.size());
+            record(fixes.size(), rawLength, body.length(), connectMs);
+            return new UploadResult(responseCode, 0);
+
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to send location: " + e.getMessage());
+            metrics.increment(TrackingMetrics.UPLOAD_ERRORS);
+            return UploadResult.networkError();
+        } finally {
+            // Only tear the socket down if the exchange broke part way
+            if (connection != null && !reusable) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    private static boolean hasTripRecords(List<LocationFix> fixes) {
+        for (LocationFix fix : fixes) {
+            if (fix.trip != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Retry-After on 429/503 is either delta-seconds or an HTTP date
+    private static long retryAfterMs(HttpURLConnection connection, int responseCode) {
+        if (responseCode != 429 && responseCode != HttpURLConnection.HTTP_UNAVAILABLE) {
+            return 0;
+        }
+        String value = connection.getHeaderField("Retry-After");
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Long.parseLong(value.trim()) * 1000);
+        } catch (NumberFormatException e) {
+            long date = connection.getHeaderFieldDate("Retry-After", 0);
+            return date > 0 ? Math.max(0, date - System.currentTimeMillis()) : 0;
+        }
+    }
+
+    private void drainResponse(HttpURLConnection connection, int responseCode) throws IOException {
+        InputStream in = responseCode >= 400 ? connection.getErrorStream() : connection.getInputStream();
+        if (in == null) {
+            return;
+        }
+        try {
+            while (in.read(responseBuffer) != -1) {
+                // discard
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private synchronized void record(int fixes, int raw, int wire, long connectMs) {
+        uploads++;
+        fixesSent += fixes;
+        rawBytes += raw;
+        wireBytes += wire;
+        connectMsTotal += connectMs;
+        Log.d(TAG, String.format(Locale.US,
+            "Upload #%d: %d fixes, %d B raw, %d B sent | totals: %d fixes, %.1f fixes/request, %.1f B/fix, %.1f ms avg connect",
+            uploads, fixes, raw, wire, fixesSent,
+            (double) fixesSent / uploads, (double) wireBytes / fixesSent, (double) connectMsTotal / uploads));
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.app;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Growable byte buffer that is reset and reused across uploads instead of
+ * allocating a fresh array per payload. Unlike ByteArrayOutputStream its
+ * writes are unsynchronized and the backing array is exposed, so callers
+ * can hand it straight to a socket without copying.
+ *
+ * Not thread-safe; each buffer belongs to one upload thread.
+ */
+public final class PayloadBuffer extends OutputStream {
+    private byte[] buf;
+    private int count;
+
+    public PayloadBuffer(int initialCapacity) {
+        buf = new byte[Math.max(16, initialCapacity)];
+    }
+
+    public void reset() {
+        count = 0;
+    }
+
+    public int length() {
+        return count;
+    }
+
+    public byte[] array() {
+        return buf;
+    }
+
+    @Override
+    public void write(int b) {
+        ensureCapacity(count + 1);
+        buf[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        ensureCapacity(count + len);
+        System.arraycopy(b, off, buf, count, len);
+        count += len;
+    }
+
+    public void writeAscii(String s) {
+        int len = s.length();
+        ensureCapacity(count + len);
+        for (int i = 0; i < len; i++) {
+            buf[count++] = (byte) s.charAt(i);
+        }
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buf, 0, count);
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buf, count);
+    }
+
+    // For encoders that fill array() directly after ensureCapacity()
+    void advance(int written) {
+        count += written;
+    }
+
+    void ensureCapacity(int capacity) {
+        if (capacity > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(capacity, buf.length * 2));
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package com.example.app;
+
+import android.os.Bundle;
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Named tracking profiles served by the service's one location session.
+ *
+ * Each profile wants a fix every {@code intervalMs}, at least as accurate as
+ * {@code accuracyMeters}, delivered to its own endpoint through its own
+ * outbox and {@link UploadPipeline}. The service asks the scheduler when
+ * the next fix is wanted and how accurate it must be, takes one fix for
+ * everyone, and hands it to {@link #deliver}, which fans it out to the
+ * profiles that are due. A profile due within a quarter of its interval
+ * (at most a minute) is served early rather than waking the device again.
+ * With a simplifier configured, each profile filters its own fixes through
+ * its own {@link TrajectorySimplifier}, since what one profile's server can
+ * reconstruct depends on the fixes it was sent.
+ */
+public class ProfileScheduler {
+    private static final String TAG = "ProfileScheduler";
+    private static final int MAX_PROFILE_OUTBOX_RECORDS = 10000;
+    private static final long MAX_SLACK_MS = 60 * 1000;
+
+    /** Profiles wanting fixes more often than this are served by one continuous GPS request instead of alarms. */
+    static final long CONTINUOUS_BELOW_MS = 60 * 1000;
+
+    private static final class Profile {
+        final String name;
+        final LocationOutbox outbox;
+        final UploadPipeline pipeline;
+        long intervalMs;
+        float accuracyMeters;
+        boolean ownToken;  // false: follows the session's token
+        TrajectorySimplifier simplifier;
+        long nextDueAt;    // wall-clock ms; 0 = wants the next fix
+
+        Profile(String name, LocationOutbox outbox, UploadPipeline pipeline) {
+            this.name = name;
+            this.outbox = outbox;
+            this.pipeline = pipeline;
+        }
+    }
+
+    private final File dir;
+    private final LocationUploader uploader;
+    private final Map<String, Profile> profiles = new LinkedHashMap<>();
+    private String sessionToken = "";
+    private double simplifyToleranceMeters = 0;
+    private long simplifyHeartbeatMs = 0;
+
+    public ProfileScheduler(File dir, LocationUploader uploader) {
+        this.dir = dir;
+        this.uploader = uploader;
+    }
+
+    static boolean isValidName(String name) {
+        return name != null && name.matches("[A-Za-z0-9_-]{1,32}");
+    }
+
+    /** How much earlier than due a profile may be served to share another fix. */
+    static long slackMs(long intervalMs) {
+        return Math.min(MAX_SLACK_MS, intervalMs / 4);
+    }
+
+    /** Adds a profile or changes an existing one; a null token follows the session's. */
+    public synchronized void put(String name, long intervalMs, float accuracyMeters, String endpoint, String accessToken) {
+        Profile profile = profiles.get(name);
+        if (profile == null) {
+            LocationOutbox outbox = new LocationOutbox(dir, outboxName(name), MAX_PROFILE_OUTBOX_RECORDS);
+            // Own uploader: each pipeline uploads on its own thread
+            profile = new Profile(name, outbox, new UploadPipeline(outbox, uploader.sibling(), endpoint));
+            profile.simplifier = newSimplifier();
+            profiles.put(name, profile);
+        }
+        profile.intervalMs = intervalMs;
+        profile.accuracyMeters = accuracyMeters;
+        profile.ownToken = accessToken != null && !accessToken.isEmpty();
+        profile.pipeline.setEndpoint(endpoint);
+        profile.pipeline.setAccessToken(profile.ownToken ? accessToken : sessionToken);
+        // Whatever it was already queued from before a restart goes out now
+        profile.pipeline.requestDrain();
+        Log.d(TAG, "Profile " + name + ": every " + intervalMs + "ms, " + accuracyMeters + "m, to " + endpoint);
+    }
+
+    /** Removes the profile and discards fixes still queued for it. */
+    public synchronized boolean remove(String name) {
+        Profile profile = profiles.remove(name);
+        if (profile == null) {
+            return false;
+        }
+        profile.pipeline.shutdown();
+        profile.outbox.clear();
+        Log.d(TAG, "Profile " + name + " removed");
+        return true;
+    }
+
+    public synchronized void setSessionToken(String accessToken) {
+        sessionToken = accessToken != null ? accessToken : "";
+        for (Profile profile : profiles.values()) {
+            if (!profile.ownToken) {
+                profile.pipeline.setAccessToken(sessionToken);
+            }
+        }
+    }
+
+    /** Gives every profile a fresh simplifier with these settings; a tolerance of 0 turns it off. */
+    public synchronized void setSimplifier(double toleranceMeters, long heartbeatMs) {
+        simplifyToleranceMeters = toleranceMeters;
+        simplifyHeartbeatMs = heartbeatMs;
+        for (Profile profile : profiles.values()) {
+            profile.simplifier = newSimplifier();
+        }
+    }
+
+    public synchronized boolean isEmpty() {
+        return profiles.isEmpty();
+    }
+
+    /** Earliest time any profile wants a fix, or Long.MAX_VALUE with no profiles. */
+    public synchronized long nextDueAt() {
+        long next = Long.MAX_VALUE;
+        for (Profile profile : profiles.values()) {
+            next = Math.min(next, profile.nextDueAt);
+        }
+        return next;
+    }
+
+    /** Shortest profile interval, or Long.MAX_VALUE with no profiles. */
+    public synchronized long shortestIntervalMs() {
+        long shortest = Long.MAX_VALUE;
+        for (Profile profile : profiles.values()) {
+            shortest = Math.min(shortest, profile.intervalMs);
+        }
+        return shortest;
+    }
+
+    /** Interval for one continuous GPS request serving every profile, or 0 if alarm cycles will do. */
+    public synchronized long continuousIntervalMs() {
+        long shortest = shortestIntervalMs();
+        return shortest < CONTINUOUS_BELOW_MS ? shortest : 0;
+    }
+
+    /** Tightest accuracy among profiles a fix taken now would serve, or Float.MAX_VALUE if none. */
+    public synchronized float accuracyTarget(long now) {
+        float target = Float.MAX_VALUE;
+        for (Profile profile : profiles.values()) {
+            if (isDue(profile, now)) {
+                target = Math.min(target, profile.accuracyMeters);
+            }
+        }
+        return target;
+    }
+
+    /** Queues the fix for every due profile and moves each one's due time on. */
+    public synchronized void deliver(LocationFix fix, long now) {
+        List<String> served = null;
+        for (Profile profile : profiles.values()) {
+            if (!isDue(profile, now)) {
+                continue;
+            }
+            // Served either way: a suppressed fix is one its server can reconstruct
+            profile.nextDueAt = now + profile.intervalMs;
+            if (profile.simplifier != null && !profile.simplifier.accept(fix)) {
+                continue;
+            }
+            profile.pipeline.enqueue(fix);
+            if (served == null) {
+                served = new ArrayList<>();
+            }
+            served.add(profile.name);
+        }
+        if (served != null) {
+            Log.d(TAG, "Fix delivered to " + served);
+        }
+    }
+
+    /**
+     * Moves every profile still due on by its interval, for a cycle that ended
+     * without a fix; otherwise their past due times would start the next cycle
+     * straight away.
+     */
+    public synchronized void postponeDue(long now) {
+        for (Profile profile : profiles.values()) {
+            if (isDue(profile, now)) {
+                profile.nextDueAt = now + profile.intervalMs;
+            }
+        }
+    }
+
+    public synchronized List<TrackingStatus.ProfileStatus> status() {
+        List<TrackingStatus.ProfileStatus> status = new ArrayList<>();
+        for (Profile profile : profiles.values()) {
+            status.add(new TrackingStatus.ProfileStatus(profile.name, profile.intervalMs, profile.accuracyMeters,
+                profile.pipeline.getEndpoint(), profile.nextDueAt, profile.pipeline.queuedFixes()));
+        }
+        return status;
+    }
+
+    /** What {@link ServiceState} saves for a profile; {@link #putSettings} restores it. */
+    public synchronized Bundle settings(String name) {
+        Profile profile = profiles.get(name);
+        if (profile == null) {
+            return null;
+        }
+        Bundle settings = new Bundle();
+        settings.putLong("intervalMs", profile.intervalMs);
+        settings.putDouble("accuracyMeters", profile.accuracyMeters);
+        settings.putString("endpoint", profile.pipeline.getEndpoint());
+        if (profile.ownToken) {
+            settings.putString("accessToken", profile.pipeline.getAccessToken());
+        }
+        return settings;
+    }
+
+    public synchronized void putSettings(String name, Bundle settings) {
+        String endpoint = settings.getString("endpoint");
+        if (!settings.containsKey("intervalMs") || !settings.containsKey("accuracyMeters") || endpoint == null) {
+            Log.w(TAG, "Ignoring incomplete profile " + name);
+            return;
+        }
+        put(name, settings.getLong("intervalMs", 0), (float) settings.getDouble("accuracyMeters", 0), endpoint,
+            settings.getString("accessToken"));
+    }
+
+    public synchronized void shutdown() {
+        for (Profile profile : profiles.values()) {
+            profile.pipeline.shutdown();
+        }
+    }
+
+    private TrajectorySimplifier newSimplifier() {
+        return simplifyToleranceMeters > 0
+            ? new TrajectorySimplifier(simplifyToleranceMeters, simplifyHeartbeatMs)
+            : null;
+    }
+
+    private static boolean isDue(Profile profile, long now) {
+        return profile.nextDueAt - slackMs(profile.intervalMs) <= now;
+    }
+
+    private static String outboxName(String name) {
+        return "profile_" + name + "_outbox";
+    }
+}
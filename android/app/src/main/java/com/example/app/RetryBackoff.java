@@ -0,0 +1,36 @@
+package com.example.app;
+
+import java.util.Random;
+
+/**
+ * Exponential backoff with jitter between failed upload attempts: the
+ * n-th retry waits half of min(max, base * 2^n) plus a random share of the
+ * other half, so a fleet that lost the same endpoint does not retry in
+ * lockstep.
+ */
+public class RetryBackoff {
+    private final long baseMs;
+    private final long maxMs;
+    private final Random random = new Random();
+    private int attempt = 0;
+
+    public RetryBackoff(long baseMs, long maxMs) {
+        this.baseMs = baseMs;
+        this.maxMs = maxMs;
+    }
+
+    public synchronized long nextDelayMs() {
+        long ceiling = Math.min(maxMs, baseMs << Math.min(attempt, 30));
+        attempt++;
+        long half = ceiling / 2;
+        return half + (long) (random.nextDouble() * (ceiling - half));
+    }
+
+    public synchronized void reset() {
+        attempt = 0;
+    }
+
+    public synchronized int attempts() {
+        return attempt;
+    }
+}
@@ -0,0 +1,257 @@
+package com.example.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Bundle;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Small snapshot of what the service needs to carry on after the OS kills
+ * it: the start configuration (endpoint, token and options), tracking
+ * profiles, the last fix, when the next alarm is due and whether a cycle
+ * was in flight.
+ *
+ * START_STICKY restarts the service with a null intent, so without this it
+ * would fall back to the default endpoint and start a fresh GPS cycle.
+ * Writes use apply() and skip values that did not change, so the cost on
+ * the cycle path is an in-memory map update; the last fix and trip state
+ * do change with nearly every fix, so those queue a background file write
+ * each time. A deliberate stop clears it.
+ *
+ * Access tokens, the session's and each profile's own, are
+ * stored encrypted with {@link KeystoreCipher}. If the keystore fails they
+ * are not stored at all, and the app has to hand the token over again
+ * after a restart.
+ */
+public class ServiceState {
+    private static final String PREFS = "service_state";
+    private static final String CONFIG_PREFIX = "config.";
+    private static final String PROFILE_PREFIX = "profile.";
+    private static final String LAST_FIX = "lastFix";
+    private static final String NEXT_ALARM_AT = "nextAlarmAt";
+    private static final String CYCLE_IN_FLIGHT = "cycleInFlight";
+    private static final String TRIP_STATE = "tripState";
+    private static final String ACCESS_TOKEN = "accessToken";
+    // Type tag of an encrypted string, next to the plain ones in encode()
+    private static final String ENCRYPTED = "e:";
+
+    private final SharedPreferences prefs;
+    private long nextAlarmAt;
+    private boolean cycleInFlight;
+
+    public ServiceState(Context context) {
+        prefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+        nextAlarmAt = prefs.getLong(NEXT_ALARM_AT, 0);
+        cycleInFlight = prefs.getBoolean(CYCLE_IN_FLIGHT, false);
+    }
+
+    /** Stores the start intent's extras, replacing any earlier configuration. */
+    public synchronized void saveConfig(Bundle extras) {
+        SharedPreferences.Editor editor = prefs.edit();
+        for (String key : prefs.getAll().keySet()) {
+            if (key.startsWith(CONFIG_PREFIX)) {
+                editor.remove(key);
+            }
+        }
+        put(editor, CONFIG_PREFIX, extras);
+        editor.apply();
+    }
+
+    /** Overwrites only the options in {@code options}, keeping the rest of the saved configuration. */
+    public synchronized void mergeConfig(Bundle options) {
+        SharedPreferences.Editor editor = prefs.edit();
+        put(editor, CONFIG_PREFIX, options);
+        editor.apply();
+    }
+
+    public synchronized void saveAccessToken(String accessToken) {
+        SharedPreferences.Editor editor = prefs.edit();
+        putSecret(editor, CONFIG_PREFIX + ACCESS_TOKEN, accessToken);
+        editor.apply();
+    }
+
+    /** True from the start of a tracking session until it is stopped, including while killed. */
+    public synchronized boolean isActive() {
+        return prefs.contains(CONFIG_PREFIX + "endpoint");
+    }
+
+    /** The saved start configuration, or null if the service was never configured or was stopped. */
+    public synchronized Bundle loadConfig() {
+        Bundle config = null;
+        for (String key : prefs.getAll().keySet()) {
+            if (!key.startsWith(CONFIG_PREFIX)) {
+                continue;
+            }
+            if (config == null) {
+                config = new Bundle();
+            }
+            decode(config, key.substring(CONFIG_PREFIX.length()), prefs.getString(key, ""));
+        }
+        return config;
+    }
+
+    /**
+     * Saves a tracking profile, replacing its earlier settings; see
+     * {@link ProfileScheduler#settings}. Each setting has its own key, like
+     * the start configuration, so no value needs escaping.
+     */
+    public synchronized void saveProfile(String name, Bundle settings) {
+        SharedPreferences.Editor editor = prefs.edit();
+        removeProfile(editor, name);
+        put(editor, PROFILE_PREFIX + name + ".", settings);
+        editor.apply();
+    }
+
+    public synchronized void removeProfile(String name) {
+        SharedPreferences.Editor editor = prefs.edit();
+        removeProfile(editor, name);
+        editor.apply();
+    }
+
+    /** Saved profile settings by name. */
+    public synchronized Map<String, Bundle> loadProfiles() {
+        Map<String, Bundle> profiles = new HashMap<>();
+        for (String key : prefs.getAll().keySet()) {
+            // Profile names cannot contain a dot; see ProfileScheduler.isValidName
+            int dot = key.indexOf('.', PROFILE_PREFIX.length());
+            if (!key.startsWith(PROFILE_PREFIX) || dot < 0) {
+                continue;
+            }
+            String name = key.substring(PROFILE_PREFIX.length(), dot);
+            Bundle settings = profiles.get(name);
+            if (settings == null) {
+                settings = new Bundle();
+                profiles.put(name, settings);
+            }
+            decode(settings, key.substring(dot + 1), prefs.getString(key, ""));
+        }
+        return profiles;
+    }
+
+    public synchronized void saveLastFix(LocationFix fix) {
+        String record = fix.toRecord();
+        if (!record.equals(prefs.getString(LAST_FIX, null))) {
+            prefs.edit().putString(LAST_FIX, record).apply();
+        }
+    }
+
+    public synchronized LocationFix lastFix() {
+        String record = prefs.getString(LAST_FIX, null);
+        return record != null ? LocationFix.fromRecord(record) : null;
+    }
+
+    /** {@link TripSegmenter} state, so a restart does not split or lose a trip. */
+    public synchronized void saveTripState(String record) {
+        if (!record.equals(prefs.getString(TRIP_STATE, ""))) {
+            prefs.edit().putString(TRIP_STATE, record).apply();
+        }
+    }
+
+    public synchronized String tripState() {
+        return prefs.getString(TRIP_STATE, "");
+    }
+
+    /** Wall-clock time the next alarm is set for. */
+    public synchronized void saveNextAlarmAt(long triggerTime) {
+        if (triggerTime != nextAlarmAt) {
+            nextAlarmAt = triggerTime;
+            prefs.edit().putLong(NEXT_ALARM_AT, triggerTime).apply();
+        }
+    }
+
+    public synchronized long nextAlarmAt() {
+        return nextAlarmAt;
+    }
+
+    public synchronized void setCycleInFlight(boolean inFlight) {
+        if (inFlight != cycleInFlight) {
+            cycleInFlight = inFlight;
+            prefs.edit().putBoolean(CYCLE_IN_FLIGHT, inFlight).apply();
+        }
+    }
+
+    public synchronized boolean cycleInFlight() {
+        return cycleInFlight;
+    }
+
+    public synchronized void clear() {
+        prefs.edit().clear().apply();
+        nextAlarmAt = 0;
+        cycleInFlight = false;
+    }
+
+    private static void put(SharedPreferences.Editor editor, String prefix, Bundle extras) {
+        for (String key : extras.keySet()) {
+            if (ACCESS_TOKEN.equals(key)) {
+                putSecret(editor, prefix + key, extras.getString(key));
+                continue;
+            }
+            String encoded = encode(extras.get(key));
+            if (encoded != null) {
+                editor.putString(prefix + key, encoded);
+            }
+        }
+    }
+
+    private void removeProfile(SharedPreferences.Editor editor, String name) {
+        String prefix = PROFILE_PREFIX + name + ".";
+        for (String key : prefs.getAll().keySet()) {
+            if (key.startsWith(prefix)) {
+                editor.remove(key);
+            }
+        }
+    }
+
+    // Encrypted, or left out if the keystore cannot encrypt it; never written in the clear
+    private static void putSecret(SharedPreferences.Editor editor, String key, String value) {
+        String sealed = value != null ? KeystoreCipher.encrypt(value) : null;
+        if (sealed != null) {
+            editor.putString(key, ENCRYPTED + sealed);
+        } else {
+            editor.remove(key);
+        }
+    }
+
+    // Type-tagged so a restored extra reads back with the getter the service uses for it
+    private static String encode(Object value) {
+        if (value instanceof String) {
+            return "s:" + value;
+        } else if (value instanceof Integer) {
+            return "i:" + value;
+        } else if (value instanceof Long) {
+            return "l:" + value;
+        } else if (value instanceof Double) {
+            return "d:" + value;
+        } else if (value instanceof Boolean) {
+            return "b:" + value;
+        }
+        return null;
+    }
+
+    private static void decode(Bundle bundle, String key, String encoded) {
+        if (encoded.length() < 2) {
+            return;
+        }
+        String value = encoded.substring(2);
+        try {
+            switch (encoded.charAt(0)) {
+                case 's': bundle.putString(key, value); break;
+                case 'i': bundle.putInt(key, Integer.parseInt(value)); break;
+                case 'l': bundle.putLong(key, Long.parseLong(value)); break;
+                case 'd': bundle.putDouble(key, Double.parseDouble(value)); break;
+                case 'b': bundle.putBoolean(key, Boolean.parseBoolean(value)); break;
+                case 'e':
+                    String secret = KeystoreCipher.decrypt(value);
+                    if (secret != null) {
+                        bundle.putString(key, secret);
+                    }
+                    break;
+                default: break;
+            }
+        } catch (NumberFormatException e) {
+            // Corrupt entry: leave it out and let the default apply
+        }
+    }
+}
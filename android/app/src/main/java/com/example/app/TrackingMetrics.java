@@ -0,0 +1,184 @@
+package com.example.app;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide counters, gauges and histograms describing what tracking
+ * costs in the field. Recording is a map lookup plus an atomic add, so it
+ * is cheap enough for every fix and upload. Shared between the service and
+ * {@link LocationTrackerPlugin}, which returns {@link #snapshot()} to JS.
+ */
+public final class TrackingMetrics {
+    public static final String WAKE_LOCK_HOLD_MS = "wakeLock.holdMs";
+    public static final String GPS_ON_MS = "gps.onMs";
+    public static final String TTFF_MS_PREFIX = "ttffMs.";
+    public static final String UPLOAD_LATENCY_MS = "upload.latencyMs";
+    public static final String UPLOAD_STATUS_PREFIX = "upload.status.";
+    public static final String UPLOAD_ERRORS = "upload.errors";
+    public static final String UPLOAD_REQUESTS = "upload.requests";
+    public static final String UPLOAD_FIXES = "upload.fixes";
+    public static final String UPLOAD_FAILOVERS = "upload.failovers";
+    public static final String UPLOAD_HEDGED = "upload.hedged";
+    public static final String BYTES_SENT = "upload.bytesSent";
+    public static final String OUTBOX_DEPTH = "outbox.depth";
+    public static final String FIXES_DROPPED = "outbox.dropped";
+    public static final String ACTIVE_REQUESTS_AVOIDED = "cycle.activeRequestsAvoided";
+    public static final String CYCLES = "cycle.count";
+    public static final String WAKEUP_LATENESS_MS = "wakeup.latenessMs";
+    public static final String WAKEUPS_LATE = "wakeup.late";
+    public static final String SIMPLIFIER_SUPPRESSED = "simplifier.suppressed";
+    public static final String SIMPLIFIER_RATIO_X100 = "simplifier.compressionRatioX100";
+    public static final String SIMPLIFIER_MAX_ERROR_CM = "simplifier.maxErrorCm";
+    public static final String LIVE_FIXES = "live.fixes";
+    public static final String LIVE_LATENCY_MS = "live.latencyMs";
+    public static final String LIVE_QUEUE_DEPTH = "live.queueDepth";
+    public static final String LIVE_OVERFLOW = "live.overflow";
+    public static final String LIVE_HANDED_BACK = "live.handedBack";
+    public static final String RESTART_TO_UPLOAD_MS = "restart.toFirstUploadMs";
+    public static final String EVENTS_EMITTED = "events.emitted";
+    public static final String EVENTS_SUPPRESSED = "events.suppressed";
+
+    private static final TrackingMetrics INSTANCE = new TrackingMetrics();
+
+    private final Map<String, AtomicLong> counters = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> gauges = new ConcurrentHashMap<>();
+    private final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private final long startedAt = System.currentTimeMillis();
+
+    private TrackingMetrics() {}
+
+    public static TrackingMetrics get() {
+        return INSTANCE;
+    }
+
+    public void increment(String name) {
+        add(name, 1);
+    }
+
+    public void add(String name, long delta) {
+        AtomicLong counter = counters.get(name);
+        if (counter == null) {
+            counter = counters.computeIfAbsent(name, k -> new AtomicLong());
+        }
+        counter.addAndGet(delta);
+    }
+
+    public void setGauge(String name, long value) {
+        AtomicLong gauge = gauges.get(name);
+        if (gauge == null) {
+            gauge = gauges.computeIfAbsent(name, k -> new AtomicLong());
+        }
+        gauge.set(value);
+    }
+
+    public void record(String name, long value) {
+        Histogram histogram = histograms.get(name);
+        if (histogram == null) {
+            histogram = histograms.computeIfAbsent(name, k -> new Histogram());
+        }
+        histogram.record(value);
+    }
+
+    public long counter(String name) {
+        AtomicLong counter = counters.get(name);
+        return counter != null ? counter.get() : 0;
+    }
+
+    /** Point-in-time copy: counters and gauges as longs, histograms as summary maps. */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new TreeMap<>();
+        snapshot.put("uptimeMs", System.currentTimeMillis() - startedAt);
+        for (Map.Entry<String, AtomicLong> e : counters.entrySet()) {
+            snapshot.put(e.getKey(), e.getValue().get());
+        }
+        for (Map.Entry<String, AtomicLong> e : gauges.entrySet()) {
+            snapshot.put(e.getKey(), e.getValue().get());
+        }
+        for (Map.Entry<String, Histogram> e : histograms.entrySet()) {
+            snapshot.put(e.getKey(), e.getValue().summary());
+        }
+        return snapshot;
+    }
+
+    /** Compact single-line JSON of {@link #snapshot()}, small enough for a request header. */
+    public String toJson() {
+        StringBuilder sb = new StringBuilder(512);
+        appendJson(sb, snapshot());
+        return sb.toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void appendJson(StringBuilder sb, Map<String, Object> map) {
+        sb.append('{');
+        boolean first = true;
+        for (Map.Entry<String, Object> e : map.entrySet()) {
+            if (!first) {
+                sb.append(',');
+            }
+            first = false;
+            sb.append('"').append(e.getKey()).append("\":");
+            Object value = e.getValue();
+            if (value instanceof Map) {
+                appendJson(sb, (Map<String, Object>) value);
+            } else {
+                sb.append(value);
+            }
+        }
+        sb.append('}');
+    }
+
+    /** Fixed log-spaced buckets, upper bounds in the recorded unit (usually ms). */
+    public static final class Histogram {
+        private static final long[] BOUNDS = {
+            10, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000, 120000, 300000
+        };
+
+        private final long[] buckets = new long[BOUNDS.length + 1];
+        private long count;
+        private long sum;
+        private long min = Long.MAX_VALUE;
+        private long max = Long.MIN_VALUE;
+
+        public synchronized void record(long value) {
+            int i = 0;
+            while (i < BOUNDS.length && value > BOUNDS[i]) {
+                i++;
+            }
+            buckets[i]++;
+            count++;
+            sum += value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+
+        public synchronized Map<String, Object> summary() {
+            Map<String, Object> summary = new TreeMap<>();
+            summary.put("count", count);
+            summary.put("sum", sum);
+            if (count > 0) {
+                summary.put("min", min);
+                summary.put("max", max);
+                summary.put("p50", percentile(0.5));
+                summary.put("p90", percentile(0.9));
+                summary.put("p99", percentile(0.99));
+            }
+            return summary;
+        }
+
+        // Upper bound of the bucket holding the percentile, capped by the observed max
+        private long percentile(double p) {
+            long rank = (long) Math.ceil(p * count);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return i < BOUNDS.length ? Math.min(BOUNDS[i], max) : max;
+                }
+            }
+            return max;
+        }
+    }
+}
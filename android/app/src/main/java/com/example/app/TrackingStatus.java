@@ -0,0 +1,45 @@
+package com.example.app;
+
+import java.util.List;
+
+/**
+ * Point-in-time view of the service for the plugin, read over the local
+ * binder instead of being mirrored in plugin fields that go stale.
+ */
+public final class TrackingStatus {
+    public final LocationFix lastFix;  // null until the first fix
+    public final long nextAlarmAt;     // wall-clock ms, 0 if none is set
+    public final int queuedFixes;
+    public final String cycleState;
+    public final boolean liveTrip;
+    public final List<ProfileStatus> profiles;
+
+    public TrackingStatus(LocationFix lastFix, long nextAlarmAt, int queuedFixes, String cycleState, boolean liveTrip,
+                          List<ProfileStatus> profiles) {
+        this.lastFix = lastFix;
+        this.nextAlarmAt = nextAlarmAt;
+        this.queuedFixes = queuedFixes;
+        this.cycleState = cycleState;
+        this.liveTrip = liveTrip;
+        this.profiles = profiles;
+    }
+
+    public static final class ProfileStatus {
+        public final String name;
+        public final long intervalMs;
+        public final float accuracyMeters;
+        public final String endpoint;
+        public final long nextDueAt;       // wall-clock ms, 0 if it wants the next fix
+        public final int queuedFixes;
+
+        public ProfileStatus(String name, long intervalMs, float accuracyMeters, String endpoint,
+                             long nextDueAt, int queuedFixes) {
+            this.name = name;
+            this.intervalMs = intervalMs;
+            this.accuracyMeters = accuracyMeters;
+            this.endpoint = endpoint;
+            this.nextDueAt = nextDueAt;
+            this.queuedFixes = queuedFixes;
+        }
+    }
+}
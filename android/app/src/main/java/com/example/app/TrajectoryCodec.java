@@ -0,0 +1,157 @@
+package com.example.app;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact binary encoding for a run of fixes, sent as
+ * {@value #CONTENT_TYPE}.
+ *
+ * Layout: magic 'T', version, varint fix count, then per fix a flags byte
+ * followed by zigzag varints. The first fix carries absolute values, every
+ * later fix carries deltas against the previous one:
+ * <ul>
+ *   <li>time in milliseconds since the epoch</li>
+ *   <li>latitude and longitude as fixed-point degrees * 1e7 (~1 cm)</li>
+ *   <li>optional accuracy (decimetres), speed (cm/s) and bearing (0.1 degree),
+ *       present when the matching flag bit is set</li>
+ * </ul>
+ * Bits 4-5 of the flags byte carry the provider. Pure Java so it can be
+ * shared with tooling that runs outside Android.
+ */
+public final class TrajectoryCodec {
+    public static final String CONTENT_TYPE = "application/x-location-trajectory";
+
+    private static final int MAGIC = 'T';
+    private static final int VERSION = 1;
+    private static final double FIXED_POINT = 1e7;
+    private static final int MIN_FIX_BYTES = 4;
+
+    private static final int FLAG_ACCURACY = 1;
+    private static final int FLAG_SPEED = 1 << 1;
+    private static final int FLAG_BEARING = 1 << 2;
+    private static final int PROVIDER_SHIFT = 4;
+
+    private static final String[] PROVIDERS = { "", "gps", "network", "fused" };
+
+    private TrajectoryCodec() {}
+
+    public static byte[] encode(List<LocationFix> fixes) {
+        PayloadBuffer out = new PayloadBuffer(8 + fixes.size() * 12);
+        encode(fixes, out);
+        return out.toByteArray();
+    }
+
+    /** Appends the encoded fixes to {@code out}. */
+    public static void encode(List<LocationFix> fixes, PayloadBuffer out) {
+        out.write(MAGIC);
+        out.write(VERSION);
+        writeVarint(out, fixes.size());
+
+        long prevTime = 0;
+        long prevLat = 0;
+        long prevLon = 0;
+        for (LocationFix fix : fixes) {
+            int flags = providerCode(fix.provider) << PROVIDER_SHIFT;
+            if (fix.accuracy >= 0) flags |= FLAG_ACCURACY;
+            if (fix.speed >= 0) flags |= FLAG_SPEED;
+            if (fix.bearing >= 0) flags |= FLAG_BEARING;
+            out.write(flags);
+
+            long lat = Math.round(fix.latitude * FIXED_POINT);
+            long lon = Math.round(fix.longitude * FIXED_POINT);
+            writeVarint(out, zigzag(fix.time - prevTime));
+            writeVarint(out, zigzag(lat - prevLat));
+            writeVarint(out, zigzag(lon - prevLon));
+            prevTime = fix.time;
+            prevLat = lat;
+            prevLon = lon;
+
+            if ((flags & FLAG_ACCURACY) != 0) writeVarint(out, Math.round(fix.accuracy * 10));
+            if ((flags & FLAG_SPEED) != 0) writeVarint(out, Math.round(fix.speed * 100));
+            if ((flags & FLAG_BEARING) != 0) writeVarint(out, Math.round(fix.bearing * 10));
+        }
+    }
+
+    public static List<LocationFix> decode(byte[] data) {
+        int[] pos = { 0 };
+        if (data.length < 2 || data[0] != MAGIC) {
+            throw new IllegalArgumentException("Not a trajectory payload");
+        }
+        if (data[1] != VERSION) {
+            throw new IllegalArgumentException("Unsupported trajectory version " + data[1]);
+        }
+        pos[0] = 2;
+
+        // Every fix takes at least a flags byte and three one-byte varints, so a count
+        // the remaining bytes cannot hold is corrupt and must not size the list
+        long count = readVarint(data, pos);
+        if (count < 0 || count > (data.length - pos[0]) / MIN_FIX_BYTES) {
+            throw new IllegalArgumentException("Bad fix count " + count + " for " + data.length + " bytes");
+        }
+        List<LocationFix> fixes = new ArrayList<>((int) count);
+        long time = 0;
+        long lat = 0;
+        long lon = 0;
+        for (int i = 0; i < count; i++) {
+            if (pos[0] >= data.length) {
+                throw new IllegalArgumentException("Truncated trajectory payload");
+            }
+            int flags = data[pos[0]++] & 0xff;
+            time += unzigzag(readVarint(data, pos));
+            lat += unzigzag(readVarint(data, pos));
+            lon += unzigzag(readVarint(data, pos));
+
+            float accuracy = (flags & FLAG_ACCURACY) != 0 ? readVarint(data, pos) / 10f : -1f;
+            float speed = (flags & FLAG_SPEED) != 0 ? readVarint(data, pos) / 100f : -1f;
+            float bearing = (flags & FLAG_BEARING) != 0 ? readVarint(data, pos) / 10f : -1f;
+            String provider = PROVIDERS[(flags >> PROVIDER_SHIFT) & 0x3];
+
+            fixes.add(new LocationFix(time, lat / FIXED_POINT, lon / FIXED_POINT,
+                accuracy, speed, bearing, provider));
+        }
+        return fixes;
+    }
+
+    private static int providerCode(String provider) {
+        for (int i = 1; i < PROVIDERS.length; i++) {
+            if (PROVIDERS[i].equals(provider)) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    static long zigzag(long n) {
+        return (n << 1) ^ (n >> 63);
+    }
+
+    static long unzigzag(long n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    static void writeVarint(PayloadBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    static long readVarint(byte[] data, int[] pos) {
+        long result = 0;
+        int shift = 0;
+        while (shift < 64) {
+            if (pos[0] >= data.length) {
+                throw new IllegalArgumentException("Truncated varint");
+            }
+            byte b = data[pos[0]++];
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+            shift += 7;
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.app;
+
+import java.util.Arrays;
+
+/**
+ * Streaming dead-reckoning filter between the location source and the
+ * upload path.
+ *
+ * Each fix is compared with where the last two sent fixes say the device
+ * should be by now (constant velocity; a single sent fix predicts standing
+ * still). Fixes within {@code toleranceMeters} of that prediction add
+ * nothing to the reconstructed path and are suppressed, so straight
+ * driving and parking both collapse to a handful of points. While
+ * suppressing, one fix per {@code heartbeatMs} is still sent as proof of
+ * life.
+ *
+ * Keeps the compression ratio and the largest error of any suppressed fix
+ * against the path the server can reconstruct: the straight line between
+ * the kept fixes either side of it, at the suppressed fix's time. This can
+ * exceed the tolerance, which only bounds the extrapolation. Suppressed
+ * fixes are measured once the next fix is kept, so at most one heartbeat
+ * of them is held.
+ */
+public class TrajectorySimplifier {
+    private final double toleranceMeters;
+    private final long heartbeatMs;
+
+    private LocationFix lastKept;
+    private LocationFix previousKept;
+    private long seen = 0;
+    private long kept = 0;
+    private double maxErrorMeters = 0;
+
+    // Fixes suppressed since lastKept, as primitives to keep the garbage down
+    private long[] suppressedTime = new long[16];
+    private double[] suppressedLatitude = new double[16];
+    private double[] suppressedLongitude = new double[16];
+    private int suppressed = 0;
+
+    // Written by predict(), so no fix is allocated per prediction
+    private double predictedLatitude;
+    private double predictedLongitude;
+
+    public TrajectorySimplifier(double toleranceMeters, long heartbeatMs) {
+        this.toleranceMeters = toleranceMeters;
+        this.heartbeatMs = heartbeatMs;
+    }
+
+    /** Returns true if {@code fix} should be uploaded. */
+    public synchronized boolean accept(LocationFix fix) {
+        seen++;
+        // A fix carrying a trip record is the record's only way to the server
+        if (lastKept == null || fix.trip != null) {
+            return keep(fix);
+        }
+        if (fix.time - lastKept.time >= heartbeatMs) {
+            return keep(fix);
+        }
+
+        predict(fix.time);
+        double error = AdaptiveInterval.distanceMeters(predictedLatitude, predictedLongitude, fix.latitude, fix.longitude);
+        if (error > toleranceMeters) {
+            return keep(fix);
+        }
+        suppress(fix);
+        return false;
+    }
+
+    public synchronized long seen() {
+        return seen;
+    }
+
+    public synchronized long kept() {
+        return kept;
+    }
+
+    /** Fixes seen per fix sent; 1.0 means nothing was suppressed. */
+    public synchronized double compressionRatio() {
+        return kept == 0 ? 1.0 : (double) seen / kept;
+    }
+
+    public synchronized double maxErrorMeters() {
+        return maxErrorMeters;
+    }
+
+    private boolean keep(LocationFix fix) {
+        if (lastKept != null) {
+            measureSuppressed(lastKept, fix);
+        }
+        suppressed = 0;
+        previousKept = lastKept;
+        lastKept = fix;
+        kept++;
+        return true;
+    }
+
+    private void suppress(LocationFix fix) {
+        if (suppressed == suppressedTime.length) {
+            int capacity = suppressed * 2;
+            suppressedTime = Arrays.copyOf(suppressedTime, capacity);
+            suppressedLatitude = Arrays.copyOf(suppressedLatitude, capacity);
+            suppressedLongitude = Arrays.copyOf(suppressedLongitude, capacity);
+        }
+        suppressedTime[suppressed] = fix.time;
+        suppressedLatitude[suppressed] = fix.latitude;
+        suppressedLongitude[suppressed] = fix.longitude;
+        suppressed++;
+    }
+
+    // Distance of each suppressed fix from the interpolation between the kept fixes around it
+    private void measureSuppressed(LocationFix from, LocationFix to) {
+        long span = to.time - from.time;
+        for (int i = 0; i < suppressed; i++) {
+            double f = span > 0 ? (double) (suppressedTime[i] - from.time) / span : 0;
+            double lat = from.latitude + (to.latitude - from.latitude) * f;
+            double lon = from.longitude + (to.longitude - from.longitude) * f;
+            double error = AdaptiveInterval.distanceMeters(lat, lon, suppressedLatitude[i], suppressedLongitude[i]);
+            maxErrorMeters = Math.max(maxErrorMeters, error);
+        }
+    }
+
+    // Linear extrapolation from the last two kept fixes
+    private void predict(long time) {
+        if (previousKept == null || lastKept.time <= previousKept.time) {
+            predictedLatitude = lastKept.latitude;
+            predictedLongitude = lastKept.longitude;
+            return;
+        }
+        double f = (double) (time - lastKept.time) / (lastKept.time - previousKept.time);
+        predictedLatitude = lastKept.latitude + (lastKept.latitude - previousKept.latitude) * f;
+        predictedLongitude = lastKept.longitude + (lastKept.longitude - previousKept.longitude) * f;
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.app;
+
+import java.util.Locale;
+
+/**
+ * A trip event found by {@link TripSegmenter}, carried to the server on the
+ * fix that revealed it (see {@link LocationFix#trip}).
+ *
+ * {@code time}, {@code latitude} and {@code longitude} are where the event
+ * happened, not the carrying fix: departure for {@link Event#START},
+ * arrival for {@link Event#END} and the latest point for a running
+ * {@link Event#SUMMARY}. Summary and end records carry the trip's aggregates
+ * so far; a start record leaves them zero. {@code id} is the departure time
+ * and is the same on every record of one trip.
+ */
+public final class TripRecord {
+    public enum Event { START, SUMMARY, END }
+
+    public final Event event;
+    public final long id;
+    public final long time;
+    public final double latitude;
+    public final double longitude;
+    public final double distanceMeters;
+    public final long durationMs;
+    public final float maxSpeedMps;
+    public final double minLatitude;
+    public final double minLongitude;
+    public final double maxLatitude;
+    public final double maxLongitude;
+    public final int fixes;
+
+    public TripRecord(Event event, long id, long time, double latitude, double longitude,
+                      double distanceMeters, long durationMs, float maxSpeedMps,
+                      double minLatitude, double minLongitude, double maxLatitude, double maxLongitude,
+                      int fixes) {
+        this.event = event;
+        this.id = id;
+        this.time = time;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.distanceMeters = distanceMeters;
+        this.durationMs = durationMs;
+        this.maxSpeedMps = maxSpeedMps;
+        this.minLatitude = minLatitude;
+        this.minLongitude = minLongitude;
+        this.maxLatitude = maxLatitude;
+        this.maxLongitude = maxLongitude;
+        this.fixes = fixes;
+    }
+
+    public float avgSpeedMps() {
+        return durationMs > 0 ? (float) (distanceMeters / (durationMs / 1000.0)) : 0f;
+    }
+
+    // Reads the semicolon-separated form FixRecordEncoder writes into the last field of a fix record
+    public static TripRecord fromRecord(String record) {
+        String[] parts = record.split(";");
+        if (parts.length < 13) {
+            return null;
+        }
+        try {
+            return new TripRecord(
+                Event.valueOf(parts[0]),
+                Long.parseLong(parts[1]),
+                Long.parseLong(parts[2]),
+                Double.parseDouble(parts[3]),
+                Double.parseDouble(parts[4]),
+                Double.parseDouble(parts[5]),
+                Long.parseLong(parts[6]),
+                Float.parseFloat(parts[7]),
+                Double.parseDouble(parts[8]),
+                Double.parseDouble(parts[9]),
+                Double.parseDouble(parts[10]),
+                Double.parseDouble(parts[11]),
+                Integer.parseInt(parts[12])
+            );
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "trip %d %s: %.0fm in %ds, max %.1fm/s, %d fixes",
+            id, event, distanceMeters, durationMs / 1000, maxSpeedMps, fixes);
+    }
+}
@@ -0,0 +1,213 @@
+package com.example.app;
+
+import java.util.Locale;
+
+/**
+ * Splits the fix stream into stops and trips as fixes arrive, in constant
+ * memory, so the server gets trip boundaries and aggregates instead of
+ * reconstructing them from raw points.
+ *
+ * While stopped, fixes within {@code stopRadiusMeters} refine the stop's
+ * position. A fix more than {@code startDistanceMeters} away, or reporting
+ * at least {@code startSpeedMps} and clearly outside the stop, starts a
+ * trip that departed at the last fix seen at the stop. While moving, the
+ * last fix added to the trip is the candidate arrival: fixes that stay
+ * within the stop radius of it without reporting speed add nothing, and
+ * once they have done so for {@code dwellMs} the trip ends there. A fix
+ * leaving the radius is added and becomes the new candidate, so dwell
+ * jitter never counts as distance.
+ *
+ * {@link #onFix} returns the fix with a {@link TripRecord} attached when it
+ * started or ended a trip, or every {@code summaryIntervalMs} of a trip as a
+ * running summary. Fixes less accurate than {@code maxAccuracyMeters} are
+ * ignored. Not thread-safe; the service calls it from the cycle thread.
+ */
+public class TripSegmenter {
+    private final double startDistanceMeters;
+    private final double stopRadiusMeters;
+    private final float startSpeedMps;
+    private final long dwellMs;
+    private final long summaryIntervalMs;
+    private final float maxAccuracyMeters;
+
+    private boolean started = false;
+    private boolean moving = false;
+
+    // Stop position, a running mean of the fixes seen there
+    private double stopLatitude;
+    private double stopLongitude;
+    private long stopTime;
+    private int stopFixes;
+
+    // Trip aggregates; the last point is the candidate arrival
+    private long tripId;
+    private long lastTime;
+    private double lastLatitude;
+    private double lastLongitude;
+    private double distanceMeters;
+    private float maxSpeedMps;
+    private double minLatitude;
+    private double minLongitude;
+    private double maxLatitude;
+    private double maxLongitude;
+    private int tripFixes;
+    private long lastSummaryAt;
+
+    public TripSegmenter(double startDistanceMeters, double stopRadiusMeters, float startSpeedMps,
+                         long dwellMs, long summaryIntervalMs, float maxAccuracyMeters) {
+        this.startDistanceMeters = startDistanceMeters;
+        this.stopRadiusMeters = stopRadiusMeters;
+        this.startSpeedMps = startSpeedMps;
+        this.dwellMs = dwellMs;
+        this.summaryIntervalMs = summaryIntervalMs;
+        this.maxAccuracyMeters = maxAccuracyMeters;
+    }
+
+    public static TripSegmenter withDefaults() {
+        return new TripSegmenter(200, 100, 3f, 10 * 60 * 1000, 15 * 60 * 1000, 150f);
+    }
+
+    /** The fix, with a trip record attached if it revealed a trip event. */
+    public LocationFix onFix(LocationFix fix) {
+        if (fix.accuracy > maxAccuracyMeters) {
+            return fix;
+        }
+        if (!started) {
+            started = true;
+            resetStop(fix.latitude, fix.longitude, fix.time);
+            return fix;
+        }
+        if (fix.time <= (moving ? lastTime : stopTime)) {
+            return fix; // repeated or out of order
+        }
+        return moving ? whileMoving(fix) : whileStopped(fix);
+    }
+
+    private LocationFix whileStopped(LocationFix fix) {
+        double d = distance(stopLatitude, stopLongitude, fix.latitude, fix.longitude);
+        boolean fast = fix.speed >= startSpeedMps && d > Math.max(stopRadiusMeters, fix.accuracy);
+        if (d <= startDistanceMeters && !fast) {
+            if (d <= stopRadiusMeters) {
+                stopFixes++;
+                stopLatitude += (fix.latitude - stopLatitude) / stopFixes;
+                stopLongitude += (fix.longitude - stopLongitude) / stopFixes;
+            }
+            stopTime = fix.time;
+            return fix;
+        }
+
+        // Departed some time after the last fix at the stop; that is the best bound we have
+        moving = true;
+        tripId = stopTime;
+        lastTime = stopTime;
+        lastLatitude = stopLatitude;
+        lastLongitude = stopLongitude;
+        distanceMeters = 0;
+        maxSpeedMps = 0;
+        minLatitude = maxLatitude = stopLatitude;
+        minLongitude = maxLongitude = stopLongitude;
+        tripFixes = 0;
+        lastSummaryAt = fix.time;
+        add(fix);
+        return fix.withTrip(new TripRecord(TripRecord.Event.START, tripId, tripId, stopLatitude, stopLongitude,
+            0, 0, 0, 0, 0, 0, 0, 0));
+    }
+
+    private LocationFix whileMoving(LocationFix fix) {
+        double d = distance(lastLatitude, lastLongitude, fix.latitude, fix.longitude);
+        boolean stillMoving = fix.speed >= 0 && fix.speed >= startSpeedMps / 2;
+        if (d <= stopRadiusMeters && !stillMoving) {
+            if (fix.time - lastTime >= dwellMs) {
+                TripRecord end = record(TripRecord.Event.END);
+                moving = false;
+                resetStop(lastLatitude, lastLongitude, lastTime);
+                whileStopped(fix);
+                return fix.withTrip(end);
+            }
+            return fix;
+        }
+
+        add(fix);
+        if (fix.time - lastSummaryAt >= summaryIntervalMs) {
+            lastSummaryAt = fix.time;
+            return fix.withTrip(record(TripRecord.Event.SUMMARY));
+        }
+        return fix;
+    }
+
+    private void add(LocationFix fix) {
+        double d = distance(lastLatitude, lastLongitude, fix.latitude, fix.longitude);
+        long dt = fix.time - lastTime;
+        float speed = fix.speed >= 0 ? fix.speed : 0f;
+        // Implied speed only over gaps long enough that position noise cannot fake it
+        if (dt >= 5000 && d > 2 * Math.max(fix.accuracy, 0)) {
+            speed = Math.max(speed, (float) (d / (dt / 1000.0)));
+        }
+        maxSpeedMps = Math.max(maxSpeedMps, speed);
+        distanceMeters += d;
+        lastTime = fix.time;
+        lastLatitude = fix.latitude;
+        lastLongitude = fix.longitude;
+        minLatitude = Math.min(minLatitude, fix.latitude);
+        maxLatitude = Math.max(maxLatitude, fix.latitude);
+        minLongitude = Math.min(minLongitude, fix.longitude);
+        maxLongitude = Math.max(maxLongitude, fix.longitude);
+        tripFixes++;
+    }
+
+    private TripRecord record(TripRecord.Event event) {
+        return new TripRecord(event, tripId, lastTime, lastLatitude, lastLongitude, distanceMeters,
+            lastTime - tripId, maxSpeedMps, minLatitude, minLongitude, maxLatitude, maxLongitude, tripFixes);
+    }
+
+    private void resetStop(double latitude, double longitude, long time) {
+        stopLatitude = latitude;
+        stopLongitude = longitude;
+        stopTime = time;
+        stopFixes = 1;
+    }
+
+    /** Compact state for {@link ServiceState}, so a restart does not split a trip. */
+    public String toRecord() {
+        if (!started) {
+            return "";
+        }
+        return String.format(Locale.US, "%b;%.7f;%.7f;%d;%d;%d;%d;%.7f;%.7f;%.1f;%.1f;%.7f;%.7f;%.7f;%.7f;%d;%d",
+            moving, stopLatitude, stopLongitude, stopTime, stopFixes, tripId, lastTime, lastLatitude,
+            lastLongitude, distanceMeters, maxSpeedMps, minLatitude, minLongitude, maxLatitude, maxLongitude,
+            tripFixes, lastSummaryAt);
+    }
+
+    public void restore(String record) {
+        String[] parts = record.split(";");
+        if (parts.length < 17) {
+            return;
+        }
+        try {
+            stopLatitude = Double.parseDouble(parts[1]);
+            stopLongitude = Double.parseDouble(parts[2]);
+            stopTime = Long.parseLong(parts[3]);
+            stopFixes = Integer.parseInt(parts[4]);
+            tripId = Long.parseLong(parts[5]);
+            lastTime = Long.parseLong(parts[6]);
+            lastLatitude = Double.parseDouble(parts[7]);
+            lastLongitude = Double.parseDouble(parts[8]);
+            distanceMeters = Double.parseDouble(parts[9]);
+            maxSpeedMps = Float.parseFloat(parts[10]);
+            minLatitude = Double.parseDouble(parts[11]);
+            minLongitude = Double.parseDouble(parts[12]);
+            maxLatitude = Double.parseDouble(parts[13]);
+            maxLongitude = Double.parseDouble(parts[14]);
+            tripFixes = Integer.parseInt(parts[15]);
+            lastSummaryAt = Long.parseLong(parts[16]);
+            moving = Boolean.parseBoolean(parts[0]);
+            started = true;
+        } catch (NumberFormatException e) {
+            // Start over from the next fix
+        }
+    }
+
+    private static double distance(double lat1, double lon1, double lat2, double lon2) {
+        return AdaptiveInterval.distanceMeters(lat1, lon1, lat2, lon2);
+    }
+}
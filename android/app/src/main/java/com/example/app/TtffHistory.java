@@ -0,0 +1,105 @@
+package com.example.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.location.LocationManager;
+
+import java.util.Arrays;
+
+/**
+ * Remembers recent time-to-first-fix per provider and derives the cycle
+ * timeout and wake-lock duration from it, instead of always holding the
+ * GPS for 90 seconds.
+ *
+ * The timeout is the 90th percentile of recent TTFF samples plus a margin,
+ * clamped between {@link #MIN_TIMEOUT_MS} and {@link #MAX_TIMEOUT_MS}.
+ * A provider that gave no fix before the timeout is recorded at the
+ * timeout itself, so a run of timeouts pushes the percentile up by the
+ * margin each cycle instead of going unseen.
+ * Samples are kept in SharedPreferences so {@link LocationAlarmReceiver}
+ * can size its wake lock before the service is running.
+ */
+public class TtffHistory {
+    private static final String PREFS = "ttff_history";
+    private static final int MAX_SAMPLES = 20;
+    private static final int MIN_SAMPLES = 5;
+    private static final double PERCENTILE = 0.9;
+    private static final long MARGIN_MS = 10 * 1000;
+
+    public static final long MIN_TIMEOUT_MS = 20 * 1000;
+    public static final long MAX_TIMEOUT_MS = 90 * 1000;
+    // Fix selection window plus time to hand the fix to the upload executor
+    private static final long WAKE_LOCK_MARGIN_MS = 30 * 1000;
+
+    private final SharedPreferences prefs;
+
+    public TtffHistory(Context context) {
+        prefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+    }
+
+    public synchronized void record(String provider, long ttffMs) {
+        long[] samples = samples(provider);
+        long[] next;
+        if (samples.length < MAX_SAMPLES) {
+            next = Arrays.copyOf(samples, samples.length + 1);
+        } else {
+            next = Arrays.copyOfRange(samples, 1, samples.length + 1);
+        }
+        next[next.length - 1] = ttffMs;
+
+        StringBuilder sb = new StringBuilder();
+        for (long sample : next) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(sample);
+        }
+        prefs.edit().putString(provider, sb.toString()).apply();
+    }
+
+    /** How long a cycle waits for its first fix from {@code provider}. */
+    public synchronized long timeoutMs(String provider) {
+        long[] samples = samples(provider);
+        if (samples.length < MIN_SAMPLES) {
+            return MAX_TIMEOUT_MS;
+        }
+        Arrays.sort(samples);
+        int index = (int) Math.ceil(PERCENTILE * samples.length) - 1;
+        long timeout = samples[Math.max(0, index)] + MARGIN_MS;
+        return Math.max(MIN_TIMEOUT_MS, Math.min(MAX_TIMEOUT_MS, timeout));
+    }
+
+    /** Cycle timeout across the providers a cycle listens to: the slowest one wins. */
+    public long cycleTimeoutMs(boolean gps, boolean network) {
+        long timeout = 0;
+        if (gps) {
+            timeout = timeoutMs(LocationManager.GPS_PROVIDER);
+        }
+        if (network) {
+            timeout = Math.max(timeout, timeoutMs(LocationManager.NETWORK_PROVIDER));
+        }
+        return timeout > 0 ? timeout : MAX_TIMEOUT_MS;
+    }
+
+    public long wakeLockMs() {
+        return cycleTimeoutMs(true, true) + WAKE_LOCK_MARGIN_MS;
+    }
+
+    private long[] samples(String provider) {
+        String stored = prefs.getString(provider, "");
+        if (stored.isEmpty()) {
+            return new long[0];
+        }
+        String[] parts = stored.split(",");
+        long[] samples = new long[parts.length];
+        int count = 0;
+        for (String part : parts) {
+            try {
+                samples[count++] = Long.parseLong(part);
+            } catch (NumberFormatException e) {
+                count--;
+            }
+        }
+        return Arrays.copyOf(samples, count);
+    }
+}
@@ -0,0 +1,34 @@
+package com.example.app;
+
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+import android.content.Intent;
+import android.util.Log;
+
+/**
+ * Scheduled by {@link DeferredUploadScheduler}. Runs when an unmetered
+ * network shows up or the delivery deadline passes, and asks the running
+ * location service to flush its outbox.
+ */
+public class UploadJobService extends JobService {
+    private static final String TAG = "UploadJobService";
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        Log.d(TAG, "Upload job started - requesting flush");
+        Intent intent = new Intent(this, LocationForegroundService.class);
+        intent.setAction("FLUSH_UPLOADS");
+        try {
+            startService(intent);
+        } catch (IllegalStateException e) {
+            // Tracking stopped and the app is in the background - nothing to flush into
+            Log.w(TAG, "Location service not running: " + e.getMessage());
+        }
+        return false;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        return false;
+    }
+}
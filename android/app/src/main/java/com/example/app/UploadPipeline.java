@@ -0,0 +1,458 @@
+package com.example.app;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Moves fixes from the {@link LocationOutbox} to the server on a single
+ * upload thread.
+ *
+ * Drain requests coalesce, so at most one drain is queued and one retry
+ * is scheduled no matter how often fixes arrive. Failed uploads back off
+ * exponentially with jitter and honour a 429/503 Retry-After. A
+ * {@link CircuitBreaker} stops a dead endpoint from being retried on every
+ * fix. Everything waiting is already on disk, so a slow endpoint costs
+ * outbox space (bounded by its overflow policy), not memory.
+ *
+ * With a maximum delivery latency and a {@link DeliveryGate}, fixes are
+ * held until sending is cheap or the oldest one would otherwise arrive late.
+ *
+ * With an {@link EndpointSelector} the endpoints' own breakers replace the
+ * pipeline's: a batch that fails is retried on the next healthy endpoint in
+ * the same drain, with a short connect timeout since there is somewhere else
+ * to go. With a hedge delay, a batch that has had no answer after that long
+ * is also sent to a second endpoint and the first success wins. Both legs,
+ * like every retry, carry the batch's {@link LocationOutbox.Batch#key} in an
+ * Idempotency-Key header, so the server can store the batch once. A request
+ * abandoned that way is not held against its endpoint.
+ */
+public class UploadPipeline {
+    /** Decides whether the network is cheap to use right now and wakes the pipeline when it becomes so. */
+    public interface DeliveryGate {
+        boolean isCheapToSend();
+
+        /** Call {@link #requestDrain()} when sending becomes cheap, or after {@code maxDelayMs} at the latest. */
+        void defer(long maxDelayMs);
+
+        void cancel();
+    }
+
+    /** Told after each batch the server accepted. */
+    public interface UploadListener {
+        void onUploaded(int fixes);
+    }
+
+    /** Time source, so a replay can run the pipeline on a virtual clock. */
+    interface Clock {
+        long elapsedRealtime();
+
+        long currentTimeMillis();
+    }
+
+    static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long elapsedRealtime() {
+            return SystemClock.elapsedRealtime();
+        }
+
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    private static final String TAG = "UploadPipeline";
+
+    static final long RETRY_BASE_MS = 5 * 1000;
+    static final long RETRY_MAX_MS = 10 * 60 * 1000;
+    static final int BREAKER_FAILURE_THRESHOLD = 5;
+    static final long BREAKER_OPEN_MS = 2 * 60 * 1000;
+    static final long BREAKER_MAX_OPEN_MS = 30 * 60 * 1000;
+    private static final int FAILOVER_CONNECT_TIMEOUT_MS = 3000;
+
+    private final ScheduledExecutorService executor;
+    private final Clock clock;
+    private final LocationOutbox outbox;
+    private final LocationUploader uploader;
+    private final RetryBackoff backoff = new RetryBackoff(RETRY_BASE_MS, RETRY_MAX_MS);
+    private final CircuitBreaker breaker =
+        new CircuitBreaker(BREAKER_FAILURE_THRESHOLD, BREAKER_OPEN_MS, BREAKER_MAX_OPEN_MS);
+    private final AtomicBoolean drainQueued = new AtomicBoolean(false);
+
+    // Upload thread only
+    private ScheduledFuture<?> scheduledDrain;
+    private long scheduledDrainAt;
+    private long retryNotBefore = 0;
+
+    private volatile String endpoint;
+    private volatile String accessToken = "";
+    private volatile FlushPolicy flushPolicy = FlushPolicy.immediate();
+    private volatile DeliveryGate deliveryGate;
+    private volatile long maxDeliveryLatencyMs = 0;
+    private volatile UploadListener uploadListener;
+    private volatile EndpointSelector endpoints;
+    private volatile long hedgeAfterMs = 0;
+
+    // Upload thread only. Hedged requests run on their own threads; each takes an
+    // idle uploader, so a request still hanging from an earlier batch blocks nothing
+    private ExecutorService hedgeExecutor;
+    private final List<LocationUploader> hedgeUploaders = new ArrayList<>();
+    private final List<Future<Attempt>> hedgeRequests = new ArrayList<>();
+
+    public UploadPipeline(LocationOutbox outbox, LocationUploader uploader, String endpoint) {
+        this(outbox, uploader, endpoint, Executors.newSingleThreadScheduledExecutor(), SYSTEM_CLOCK);
+    }
+
+    /** {@code executor} must run one task at a time; drains assume a single upload thread. */
+    UploadPipeline(LocationOutbox outbox, LocationUploader uploader, String endpoint,
+                   ScheduledExecutorService executor, Clock clock) {
+        this.outbox = outbox;
+        this.uploader = uploader;
+        this.endpoint = endpoint;
+        this.executor = executor;
+        this.clock = clock;
+    }
+
+    public void setEndpoint(String endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    public void setAccessToken(String accessToken) {
+        this.accessToken = accessToken != null ? accessToken : "";
+        // Fixes held back by a 401 go out on the next drain that is not backing off
+        requestDrain();
+    }
+
+    /**
+     * Spreads uploads over several endpoints, or back to the single endpoint
+     * with null. {@code hedgeAfterMs} > 0 sends a batch to a second endpoint
+     * as well when the first has not answered in that time.
+     */
+    public void setEndpoints(EndpointSelector selector, long hedgeAfterMs) {
+        if (selector != null) {
+            // Others (the live stream) still want one base URL
+            endpoint = selector.endpoints().get(0).url;
+        }
+        this.hedgeAfterMs = hedgeAfterMs;
+        endpoints = selector;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public String getAccessToken() {
+        return accessToken;
+    }
+
+    public void setUploadListener(UploadListener listener) {
+        uploadListener = listener;
+    }
+
+    public void setFlushPolicy(FlushPolicy flushPolicy) {
+        this.flushPolicy = flushPolicy;
+    }
+
+    /** Hold uploads for up to {@code maxLatencyMs} waiting for a cheap network; 0 sends right away. */
+    public void setDeferral(DeliveryGate gate, long maxLatencyMs) {
+        DeliveryGate previous = deliveryGate;
+        if (previous != null && previous != gate) {
+            previous.cancel();
+        }
+        deliveryGate = gate;
+        maxDeliveryLatencyMs = maxLatencyMs;
+    }
+
+    public int queuedFixes() {
+        return outbox.size();
+    }
+
+    /** Persists the fix, then asks for a drain. */
+    public void enqueue(LocationFix fix) {
+        outbox.append(fix);
+        requestDrain();
+    }
+
+    /** Queues a drain unless one is already waiting to run. */
+    public void requestDrain() {
+        if (executor.isShutdown()) {
+            // Already persisted; the next service start drains it
+            return;
+        }
+        if (drainQueued.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        }
+    }
+
+    public void shutdown() {
+        DeliveryGate gate = deliveryGate;
+        if (gate != null) {
+            gate.cancel();
+        }
+        if (!executor.isShutdown()) {
+            executor.execute(() -> {
+                // Runs after the last drain, so nothing submits hedges after this
+                if (hedgeExecutor != null) {
+                    hedgeExecutor.shutdown();
+                }
+            });
+        }
+        executor.shutdown();
+    }
+
+    private void drain() {
+        drainQueued.set(false);
+
+        List<LocationFix> oldest = outbox.peek(1);
+        if (oldest.isEmpty()) {
+            return;
+        }
+
+        long now = clock.elapsedRealtime();
+        if (now < retryNotBefore) {
+            scheduleDrain(retryNotBefore - now);
+            return;
+        }
+        EndpointSelector selector = endpoints;
+        if (selector != null ? selector.remainingOpenMs(now) > 0 : !breaker.allowRequest(now)) {
+            scheduleDrain(selector != null ? selector.remainingOpenMs(now) : breaker.remainingOpenMs(now));
+            return;
+        }
+
+        FlushPolicy policy = flushPolicy;
+        long oldestAgeMs = clock.currentTimeMillis() - oldest.get(0).time;
+        if (!policy.shouldFlush(outbox.size(), outbox.sizeBytes(), oldestAgeMs)) {
+            long delayMs = policy.delayUntilDue(oldestAgeMs);
+            if (delayMs >= 0) {
+                scheduleDrain(delayMs);
+                Log.d(TAG, "Batch flush scheduled in " + delayMs + "ms");
+            }
+            return;
+        }
+
+        DeliveryGate gate = deliveryGate;
+        long maxLatencyMs = maxDeliveryLatencyMs;
+        if (gate != null && maxLatencyMs > 0) {
+            long remainingMs = maxLatencyMs - oldestAgeMs;
+            // Within a second of the deadline it is not worth another wake-up
+            if (remainingMs > 1000 && !gate.isCheapToSend()) {
+                gate.defer(remainingMs);
+                scheduleDrain(remainingMs);
+                return;
+            }
+            gate.cancel();
+        }
+
+        int sent = 0;
+        while (true) {
+            // Released by sequence number, not count: the overflow policy may evict or
+            // replace queued fixes while this batch is in flight
+            LocationOutbox.Batch batch = outbox.peekBatch(policy.maxFixes);
+            List<LocationFix> pending = batch.fixes;
+            if (pending.isEmpty()) {
+                // Only unreadable records left
+                outbox.release(batch.lastSeq);
+                break;
+            }
+
+            // Every attempt at this batch, retry or hedge leg, carries its key so the server can drop repeats
+            UploadResult result = selector != null
+                ? send(selector, batch, policy.isBatching())
+                : uploader.upload(endpoint, accessToken, pending, policy.isBatching(), batch.key);
+            if (result.isSuccess()) {
+                outbox.release(batch.lastSeq);
+                sent += pending.size();
+                breaker.onSuccess();
+                backoff.reset();
+                UploadListener listener = uploadListener;
+                if (listener != null) {
+                    listener.onUploaded(pending.size());
+                }
+                continue;
+            }
+
+            if (!result.isRetryable()) {
+                // Retrying would only block every fix queued behind this batch
+                Log.e(TAG, "Server refused batch (" + result + ") - dropping " + pending.size() + " fixes");
+                outbox.release(batch.lastSeq);
+                TrackingMetrics.get().add(TrackingMetrics.FIXES_DROPPED, pending.size());
+                continue;
+            }
+
+            now = clock.elapsedRealtime();
+            long delayMs = result.retryAfterMs > 0 ? result.retryAfterMs : backoff.nextDelayMs();
+            retryNotBefore = now + delayMs;
+            if (selector != null) {
+                // Every endpoint failed this batch
+                scheduleDrain(Math.max(delayMs, selector.remainingOpenMs(now)));
+                Log.w(TAG, "Upload failed on every endpoint (" + result + ") - " + outbox.size()
+                    + " fixes kept, retry in " + delayMs + "ms; " + selector.describe());
+                break;
+            }
+            breaker.onFailure(now);
+            scheduleDrain(Math.max(delayMs, breaker.remainingOpenMs(now)));
+            Log.w(TAG, "Upload failed (" + result + ") - " + outbox.size() + " fixes kept, retry in "
+                + delayMs + "ms, circuit " + breaker.state());
+            break;
+        }
+        if (sent > 0) {
+            Log.d(TAG, "Drained " + sent + " fixes from outbox");
+        }
+    }
+
+    // Tries healthy endpoints in the selector's order of preference until one takes the batch
+    private UploadResult send(EndpointSelector selector, LocationOutbox.Batch queued, boolean batch) {
+        List<EndpointSelector.Endpoint> tried = new ArrayList<>();
+        UploadResult result = UploadResult.networkError();
+        EndpointSelector.Endpoint target = selector.choose(clock.elapsedRealtime());
+        while (target != null) {
+            tried.add(target);
+            EndpointSelector.Endpoint backup = hedgeAfterMs > 0
+                ? selector.alternative(tried, clock.elapsedRealtime())
+                : null;
+            if (backup != null) {
+                tried.add(backup);
+                result = sendHedged(selector, target, backup, queued, batch);
+            } else {
+                result = sendTo(selector, target, uploader, queued, batch);
+            }
+            if (result.isSuccess() || !result.isRetryable()) {
+                return result;
+            }
+            target = selector.alternative(tried, clock.elapsedRealtime());
+            if (target != null) {
+                TrackingMetrics.get().increment(TrackingMetrics.UPLOAD_FAILOVERS);
+                Log.w(TAG, "Upload failed (" + result + ") - failing over to " + target.url);
+            }
+        }
+        return result;
+    }
+
+    // Sends to target; if it has not answered within the hedge delay, to backup as well.
+    // Only legs whose answer decided the batch are reported to the selector: a leg still
+    // running when the other one wins is abandoned, and its late outcome says nothing
+    private UploadResult sendHedged(EndpointSelector selector, EndpointSelector.Endpoint target,
+                                    EndpointSelector.Endpoint backup, LocationOutbox.Batch queued, boolean batch) {
+        if (hedgeExecutor == null) {
+            hedgeExecutor = Executors.newCachedThreadPool();
+        }
+        CompletionService<Attempt> requests = new ExecutorCompletionService<>(hedgeExecutor);
+        submit(requests, target, queued, batch);
+        int outstanding = 1;
+        UploadResult result = null;
+        try {
+            Future<Attempt> done = requests.poll(hedgeAfterMs, TimeUnit.MILLISECONDS);
+            if (done == null || !(result = report(selector, await(done))).isSuccess()) {
+                if (done == null) {
+                    TrackingMetrics.get().increment(TrackingMetrics.UPLOAD_HEDGED);
+                    Log.d(TAG, "No answer from " + target.url + " after " + hedgeAfterMs + "ms - hedging to " + backup.url);
+                } else {
+                    outstanding = 0;
+                }
+                submit(requests, backup, queued, batch);
+                outstanding++;
+                while (outstanding-- > 0) {
+                    result = report(selector, await(requests.take()));
+                    if (result.isSuccess()) {
+                        break;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return result != null ? result : UploadResult.networkError();
+    }
+
+    private UploadResult sendTo(EndpointSelector selector, EndpointSelector.Endpoint target,
+                                LocationUploader uploader, LocationOutbox.Batch queued, boolean batch) {
+        return report(selector, attempt(target, uploader, queued, batch));
+    }
+
+    private Attempt attempt(EndpointSelector.Endpoint target, LocationUploader uploader,
+                            LocationOutbox.Batch queued, boolean batch) {
+        long start = clock.elapsedRealtime();
+        UploadResult result = uploader.upload(target.url, accessToken, queued.fixes, batch, queued.key,
+            FAILOVER_CONNECT_TIMEOUT_MS);
+        return new Attempt(target, result, clock.elapsedRealtime() - start);
+    }
+
+    private UploadResult report(EndpointSelector selector, Attempt attempt) {
+        if (attempt.target == null) {
+            return attempt.result;
+        }
+        long now = clock.elapsedRealtime();
+        UploadResult result = attempt.result;
+        // A 4xx is the endpoint answering; only no answer, 429 and 5xx count against its health
+        if (result.statusCode == UploadResult.NETWORK_ERROR || result.statusCode == 429 || result.statusCode >= 500) {
+            selector.onFailure(attempt.target, attempt.latencyMs, now);
+        } else {
+            selector.onSuccess(attempt.target, attempt.latencyMs, now);
+        }
+        return result;
+    }
+
+    private void submit(CompletionService<Attempt> requests, EndpointSelector.Endpoint target,
+                        LocationOutbox.Batch queued, boolean batch) {
+        int slot = 0;
+        while (slot < hedgeRequests.size() && hedgeRequests.get(slot) != null && !hedgeRequests.get(slot).isDone()) {
+            slot++;
+        }
+        if (slot == hedgeRequests.size()) {
+            hedgeUploaders.add(uploader.sibling());
+            hedgeRequests.add(null);
+        }
+        LocationUploader idle = hedgeUploaders.get(slot);
+        hedgeRequests.set(slot, requests.submit(() -> attempt(target, idle, queued, batch)));
+    }
+
+    // A request that threw has no endpoint to blame
+    private static Attempt await(Future<Attempt> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Upload request failed: " + e.getCause());
+        }
+        return new Attempt(null, UploadResult.networkError(), 0);
+    }
+
+    private static final class Attempt {
+        final EndpointSelector.Endpoint target;
+        final UploadResult result;
+        final long latencyMs;
+
+        Attempt(EndpointSelector.Endpoint target, UploadResult result, long latencyMs) {
+            this.target = target;
+            this.result = result;
+            this.latencyMs = latencyMs;
+        }
+    }
+
+    // Keeps only the earliest pending wake-up
+    private void scheduleDrain(long delayMs) {
+        long at = clock.elapsedRealtime() + delayMs;
+        if (scheduledDrain != null && !scheduledDrain.isDone()) {
+            if (scheduledDrainAt <= at) {
+                return;
+            }
+            scheduledDrain.cancel(false);
+        }
+        scheduledDrainAt = at;
+        scheduledDrain = executor.schedule(this::requestDrain, delayMs, TimeUnit.MILLISECONDS);
+    }
+}
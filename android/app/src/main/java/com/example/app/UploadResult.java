@@ -0,0 +1,38 @@
+package com.example.app;
+
+/**
+ * Outcome of one upload request, with what the server said about retrying.
+ */
+public final class UploadResult {
+    /** Status code used when the request never got an HTTP response. */
+    public static final int NETWORK_ERROR = -1;
+
+    public final int statusCode;
+    public final long retryAfterMs;
+
+    public UploadResult(int statusCode, long retryAfterMs) {
+        this.statusCode = statusCode;
+        this.retryAfterMs = retryAfterMs;
+    }
+
+    public static UploadResult networkError() {
+        return new UploadResult(NETWORK_ERROR, 0);
+    }
+
+    public boolean isSuccess() {
+        return statusCode >= 200 && statusCode < 300;
+    }
+
+    /**
+     * False for requests the server will never accept as sent (malformed or
+     * too large), which would otherwise block the outbox forever.
+     */
+    public boolean isRetryable() {
+        return !(statusCode == 400 || statusCode == 413 || statusCode == 422);
+    }
+
+    @Override
+    public String toString() {
+        return statusCode == NETWORK_ERROR ? "network error" : "HTTP " + statusCode;
+    }
+}
@@ -0,0 +1,155 @@
+package com.example.app;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.util.Log;
+
+/**
+ * Wakes the device for the next location cycle, trading timing precision
+ * for fewer wakeups of its own.
+ *
+ * {@link Tier#EXACT} fires on time, even in Doze. {@link Tier#WINDOW} lets
+ * the system fire anywhere in {@code [trigger, trigger + tolerance]} so it
+ * can batch us with other apps' alarms, but waits for a maintenance window
+ * in Doze. {@link Tier#INEXACT} leaves the delay to the system (typically a
+ * large fraction of the interval) and is rate-limited in Doze. {@link
+ * Tier#JOB} runs a JobScheduler job with {@code trigger + tolerance} as its
+ * deadline, which the system folds into its own batches and maintenance
+ * windows.
+ *
+ * The tolerance is how late a wakeup may be; 0 uses the slack every feed
+ * already accepts (see {@link ProfileScheduler#slackMs}). Whatever the tier,
+ * {@link #onFired} records how late each wakeup actually was.
+ */
+public class WakeupScheduler {
+    private static final String TAG = "WakeupScheduler";
+    static final int JOB_ID = 4202;
+
+    public enum Tier { EXACT, WINDOW, INEXACT, JOB }
+
+    private final Context context;
+    private final AlarmManager alarmManager;
+    private final JobScheduler jobScheduler;
+    private final TrackingMetrics metrics = TrackingMetrics.get();
+    private PendingIntent alarmIntent;
+    private Tier tier = Tier.EXACT;
+    private long toleranceMs = 0;
+
+    public WakeupScheduler(Context context) {
+        this.context = context.getApplicationContext();
+        this.alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        this.jobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+    }
+
+    public static Tier parseTier(String name) {
+        if ("window".equals(name)) {
+            return Tier.WINDOW;
+        }
+        if ("inexact".equals(name)) {
+            return Tier.INEXACT;
+        }
+        if ("job".equals(name)) {
+            return Tier.JOB;
+        }
+        return Tier.EXACT;
+    }
+
+    /** Takes effect from the next {@link #schedule}; a pending wakeup of another tier is cancelled then. */
+    public synchronized void setTier(Tier tier, long toleranceMs) {
+        this.tier = tier;
+        this.toleranceMs = Math.max(0, toleranceMs);
+    }
+
+    public synchronized Tier tier() {
+        return tier;
+    }
+
+    /** Replaces any pending wakeup with one at {@code triggerTime} (wall-clock ms) for a cycle of {@code intervalMs}. */
+    public synchronized void schedule(long triggerTime, long intervalMs) {
+        cancel();
+        long tolerance = toleranceMs(intervalMs);
+        Tier effective = tier;
+        if (effective == Tier.EXACT && Build.VERSION.SDK_INT >= Build.VERSION_CODES.S
+                && !alarmManager.canScheduleExactAlarms()) {
+            // Exact alarms revoked by the user; setExact* would throw
+            effective = Tier.WINDOW;
+        }
+
+        switch (effective) {
+            case EXACT:
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                    alarmManager.setExactAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, triggerTime, alarmIntent());
+                } else {
+                    alarmManager.setExact(AlarmManager.RTC_WAKEUP, triggerTime, alarmIntent());
+                }
+                break;
+            case WINDOW:
+                alarmManager.setWindow(AlarmManager.RTC_WAKEUP, triggerTime, tolerance, alarmIntent());
+                break;
+            case INEXACT:
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                    alarmManager.setAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, triggerTime, alarmIntent());
+                } else {
+                    alarmManager.set(AlarmManager.RTC_WAKEUP, triggerTime, alarmIntent());
+                }
+                break;
+            case JOB:
+                long delayMs = Math.max(0, triggerTime - System.currentTimeMillis());
+                JobInfo job = new JobInfo.Builder(JOB_ID, new ComponentName(context, LocationJobService.class))
+                    .setMinimumLatency(delayMs)
+                    .setOverrideDeadline(delayMs + tolerance)
+                    .build();
+                jobScheduler.schedule(job);
+                break;
+        }
+    }
+
+    /** Cancels the pending wakeup of every tier, so switching tiers never leaves a stray one. */
+    public synchronized void cancel() {
+        // Matches an alarm set by an earlier process too
+        alarmManager.cancel(alarmIntent());
+        if (jobScheduler != null) {
+            jobScheduler.cancel(JOB_ID);
+        }
+    }
+
+    /**
+     * Records actual against planned fire time for the wakeup that just
+     * arrived. The plan comes from {@link ServiceState}, so a wakeup that
+     * outlived the process that scheduled it is still measured.
+     */
+    public synchronized void onFired(long plannedAt, long now, long intervalMs) {
+        if (plannedAt <= 0) {
+            return;
+        }
+        long lateMs = Math.max(0, now - plannedAt);
+        long tolerance = toleranceMs(intervalMs);
+        metrics.record(TrackingMetrics.WAKEUP_LATENESS_MS, lateMs);
+        if (lateMs > tolerance) {
+            metrics.increment(TrackingMetrics.WAKEUPS_LATE);
+        }
+        Log.d(TAG, tier + " wakeup " + lateMs + "ms after plan (tolerance " + tolerance + "ms)");
+    }
+
+    private long toleranceMs(long intervalMs) {
+        return toleranceMs > 0 ? toleranceMs : ProfileScheduler.slackMs(intervalMs);
+    }
+
+    private PendingIntent alarmIntent() {
+        if (alarmIntent == null) {
+            alarmIntent = PendingIntent.getBroadcast(
+                context,
+                0,
+                new Intent(context, LocationAlarmReceiver.class),
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
+            );
+        }
+        return alarmIntent;
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class AdaptiveIntervalTest {
+    private static final long MIN_MS = 10_000;
+    private static final long MAX_MS = 600_000;
+
+    @Test
+    public void parkedDeviceIsStationaryAndBacksOff() {
+        AdaptiveInterval interval = new AdaptiveInterval(MIN_MS, MAX_MS, 80f);
+        interval.onFix(fix(0, 0f));
+        long next = interval.onFix(fix(MIN_MS, 0f));
+        assertTrue(interval.isStationary());
+        assertEquals(4 * MIN_MS, next);
+    }
+
+    @Test
+    public void slowMovementStretchesIntervalWithoutCountingAsParked() {
+        // 2 m/s with an 80 m target: interval above the minimum, but the device is moving
+        AdaptiveInterval interval = new AdaptiveInterval(MIN_MS, MAX_MS, 80f);
+        long next = interval.onFix(fix(0, 2f));
+        assertEquals(40_000, next);
+        assertFalse(interval.isStationary());
+    }
+
+    @Test
+    public void motionClearsStationary() {
+        AdaptiveInterval interval = new AdaptiveInterval(MIN_MS, MAX_MS, 80f);
+        interval.onFix(fix(0, 0f));
+        interval.onFix(fix(MIN_MS, 0f));
+        interval.onMotion();
+        assertFalse(interval.isStationary());
+        assertEquals(MIN_MS, interval.nextIntervalMs());
+    }
+
+    private static LocationFix fix(long time, float speed) {
+        return new LocationFix(time, 52.52, 13.405, 5f, speed, 0f, "gps");
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scripted outage drill for multi-endpoint uploads: three
+ * {@link StandInIngestServer}s behind one {@link UploadPipeline} with an
+ * {@link EndpointSelector}, while a fix is queued every 200 ms.
+ *
+ * Phases: all healthy; primary stalling for longer than the read timeout
+ * (hedging, if enabled, keeps fixes flowing); primary answering 503;
+ * primary healthy again (failback). Each phase prints which server took the
+ * requests and how long fixes waited between enqueue and acceptance.
+ *
+ * A development tool kept with the tests, not shipped in the app:
+ * {@code EndpointFailoverDrill [ordered|latency] [hedgeAfterMs=300] [phaseSeconds=20]}
+ */
+public class EndpointFailoverDrill {
+    private static final long FIX_INTERVAL_MS = 200;
+    private static final long STALL_MS = 12 * 1000;
+
+    private final EndpointSelector.Mode mode;
+    private final long hedgeAfterMs;
+    private final long phaseMs;
+
+    private final ArrayDeque<Long> queuedAt = new ArrayDeque<>();
+    private TrackingMetrics.Histogram waits = new TrackingMetrics.Histogram();
+
+    public EndpointFailoverDrill(EndpointSelector.Mode mode, long hedgeAfterMs, long phaseMs) {
+        this.mode = mode;
+        this.hedgeAfterMs = hedgeAfterMs;
+        this.phaseMs = phaseMs;
+    }
+
+    public void run() throws IOException, InterruptedException {
+        List<StandInIngestServer> servers = new ArrayList<>();
+        StringBuilder spec = new StringBuilder();
+        for (int i = 0; i < 3; i++) {
+            StandInIngestServer server = new StandInIngestServer();
+            servers.add(server);
+            spec.append(server.endpoint()).append('\n');
+        }
+        // The secondaries are further away
+        servers.get(1).setResponseDelayMs(40);
+        servers.get(2).setResponseDelayMs(80);
+        StandInIngestServer primary = servers.get(0);
+
+        File dir = Files.createTempDirectory("failover-drill").toFile();
+        LocationOutbox outbox = new LocationOutbox(dir, 100000);
+        UploadPipeline pipeline = new UploadPipeline(outbox, new LocationUploader(), primary.endpoint());
+        pipeline.setEndpoints(EndpointSelector.parse(spec.toString(), mode), hedgeAfterMs);
+        pipeline.setUploadListener(this::onUploaded);
+
+        ScheduledExecutorService producer = Executors.newSingleThreadScheduledExecutor();
+        producer.scheduleAtFixedRate(() -> {
+            long now = System.currentTimeMillis();
+            synchronized (this) {
+                queuedAt.add(now);
+            }
+            pipeline.enqueue(new LocationFix(now, 52.52, 13.40, 5f, 0f, 0f, "gps"));
+        }, 0, FIX_INTERVAL_MS, TimeUnit.MILLISECONDS);
+
+        System.out.println("mode " + mode + ", hedge after " + hedgeAfterMs + "ms");
+        phase("healthy", servers);
+        primary.setResponseDelayMs(STALL_MS);
+        phase("primary stalled", servers);
+        primary.setResponseDelayMs(0);
+        primary.setStatusCode(503);
+        phase("primary 503", servers);
+        primary.setStatusCode(200);
+        phase("primary recovered", servers);
+
+        producer.shutdownNow();
+        pipeline.shutdown();
+        for (StandInIngestServer server : servers) {
+            server.close();
+        }
+        outbox.clear();
+        dir.delete();
+    }
+
+    private void phase(String name, List<StandInIngestServer> servers) throws InterruptedException {
+        long[] before = new long[servers.size()];
+        for (int i = 0; i < servers.size(); i++) {
+            before[i] = servers.get(i).requests();
+        }
+        synchronized (this) {
+            waits = new TrackingMetrics.Histogram();
+        }
+        Thread.sleep(phaseMs);
+
+        StringBuilder counts = new StringBuilder();
+        for (int i = 0; i < servers.size(); i++) {
+            counts.append(i == 0 ? "" : "/").append(servers.get(i).requests() - before[i]);
+        }
+        TrackingMetrics.Histogram phaseWaits;
+        int backlog;
+        synchronized (this) {
+            phaseWaits = waits;
+            backlog = queuedAt.size();
+        }
+        System.out.println(String.format(Locale.US, "%-18s requests primary/second/third %s, backlog %d, wait ms %s",
+            name, counts, backlog, phaseWaits.summary()));
+    }
+
+    // The outbox is FIFO, so accepted fixes are always the oldest queued
+    private synchronized void onUploaded(int fixes) {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < fixes && !queuedAt.isEmpty(); i++) {
+            waits.record(now - queuedAt.poll());
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        EndpointSelector.Mode mode = args.length > 0 && "latency".equals(args[0])
+            ? EndpointSelector.Mode.LATENCY
+            : EndpointSelector.Mode.ORDERED;
+        long hedgeAfterMs = args.length > 1 ? Long.parseLong(args[1]) : 300;
+        long phaseMs = (args.length > 2 ? Long.parseLong(args[2]) : 20) * 1000;
+        // Returns once the last stalled request does; the pipeline's threads are shut down by then
+        new EndpointFailoverDrill(mode, hedgeAfterMs, phaseMs).run();
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.Test;
+
+public class FixRecordEncoderTest {
+
+    @Test
+    public void matchesTheFormattedRecord() {
+        for (LocationFix fix : fixes()) {
+            String formatted = String.format(Locale.US, "%d,%.7f,%.7f,%.1f,%.1f,%.1f,%s",
+                fix.time, fix.latitude, fix.longitude, fix.accuracy, fix.speed, fix.bearing, fix.provider);
+            String record = fix.toRecord();
+            assertEquals(formatted, fix.trip == null ? record : record.substring(0, record.lastIndexOf(',')));
+        }
+    }
+
+    @Test
+    public void recordsRoundTrip() {
+        for (LocationFix fix : fixes()) {
+            assertSameFix(fix, LocationFix.fromRecord(fix.toRecord()));
+        }
+    }
+
+    @Test
+    public void outboxReadsBackWhatItAppended() throws Exception {
+        File dir = Files.createTempDirectory("outbox").toFile();
+        LocationOutbox outbox = new LocationOutbox(dir, 100);
+        for (LocationFix fix : fixes()) {
+            outbox.append(fix);
+        }
+        // A fresh instance rescans the segment, checking every frame's CRC
+        List<LocationFix> read = new LocationOutbox(dir, 100).peek(100);
+        assertEquals(fixes().size(), read.size());
+        for (int i = 0; i < read.size(); i++) {
+            assertSameFix(fixes().get(i), read.get(i));
+        }
+        outbox.clear();
+    }
+
+    private static void assertSameFix(LocationFix expected, LocationFix actual) {
+        assertNotNull(actual);
+        assertEquals(expected.time, actual.time);
+        assertEquals(expected.latitude, actual.latitude, 1e-7);
+        assertEquals(expected.longitude, actual.longitude, 1e-7);
+        assertEquals(expected.accuracy, actual.accuracy, 0.05);
+        assertEquals(expected.speed, actual.speed, 0.05);
+        assertEquals(expected.bearing, actual.bearing, 0.05);
+        assertEquals(expected.provider, actual.provider);
+        if (expected.trip == null) {
+            assertEquals(null, actual.trip);
+            return;
+        }
+        assertNotNull(actual.trip);
+        assertEquals(expected.trip.event, actual.trip.event);
+        assertEquals(expected.trip.id, actual.trip.id);
+        assertEquals(expected.trip.distanceMeters, actual.trip.distanceMeters, 0.05);
+        assertEquals(expected.trip.durationMs, actual.trip.durationMs);
+        assertEquals(expected.trip.minLongitude, actual.trip.minLongitude, 1e-7);
+        assertEquals(expected.trip.fixes, actual.trip.fixes);
+    }
+
+    private static List<LocationFix> fixes() {
+        TripRecord end = new TripRecord(TripRecord.Event.END, 1700000000000L, 1700003600000L, 52.52, 13.405,
+            12345.6, 3600000L, 27.5f, 52.4, -0.1234567, 52.6, 13.5, 360);
+        return Arrays.asList(
+            new LocationFix(1700000000123L, 52.5200066, 13.4049540, 12.3f, 4.56f, 270.5f, "gps"),
+            // Southern and western hemispheres, and the -1 that marks a missing value
+            new LocationFix(1700000060000L, -33.8688197, -151.2092955, -1f, -1f, -1f, "network"),
+            new LocationFix(1700000120000L, 0.0000001, -0.0000001, 0f, 0f, 0f, ""),
+            new LocationFix(1700003600000L, 52.52, 13.405, 8f, 0f, 90f, "fused", end)
+        );
+    }
+}
@@ -0,0 +1,224 @@
+package com.example.app;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Simulates a fleet of devices posting to one ingest endpoint, to size the
+ * backend and tune client backoff before a rollout.
+ *
+ * Every virtual device has its own {@link LocationUploader} (so payloads are
+ * encoded exactly as on the phone), {@link RetryBackoff} and
+ * {@link CircuitBreaker} with the {@link UploadPipeline} defaults. Each one
+ * takes a fix every interval plus or minus jitter, queues it and uploads
+ * once the batch is full. Failed batches stay queued until the backoff,
+ * Retry-After or open breaker allows the next attempt. Start times are
+ * spread over the first interval so the fleet does not arrive in lockstep.
+ *
+ * A development tool kept with the tests, not shipped in the app. Run
+ * against api/server.js or a {@link StandInIngestServer}:
+ * {@code FleetLoadGenerator http://localhost:3000/ 1000 120 5 10 binary}
+ * (endpoint, devices, seconds, fix interval seconds, batch size, format).
+ * Prints throughput, latency percentiles and error rates every 10 s and a
+ * total at the end.
+ */
+public class FleetLoadGenerator {
+    private static final long REPORT_INTERVAL_MS = 10 * 1000;
+    private static final int MAX_QUEUED_PER_DEVICE = 1000;
+    private static final double INTERVAL_JITTER = 0.2;
+
+    private final String endpoint;
+    private final int devices;
+    private final long fixIntervalMs;
+    private final int batchSize;
+    private final boolean binary;
+    private long retryBaseMs = UploadPipeline.RETRY_BASE_MS;
+    private long retryMaxMs = UploadPipeline.RETRY_MAX_MS;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong fixesSent = new AtomicLong();
+    private final AtomicLong fixesDropped = new AtomicLong();
+    private final Map<String, AtomicLong> outcomes = new TreeMap<>();
+    private final AtomicReference<TrackingMetrics.Histogram> windowLatency =
+        new AtomicReference<>(new TrackingMetrics.Histogram());
+    private final TrackingMetrics.Histogram totalLatency = new TrackingMetrics.Histogram();
+
+    public FleetLoadGenerator(String endpoint, int devices, long fixIntervalMs, int batchSize, boolean binary) {
+        this.endpoint = endpoint;
+        this.devices = devices;
+        this.fixIntervalMs = fixIntervalMs;
+        this.batchSize = Math.max(1, batchSize);
+        this.binary = binary;
+    }
+
+    /** Client backoff under test; defaults to what the app ships with. */
+    public void setRetryBackoff(long baseMs, long maxMs) {
+        retryBaseMs = baseMs;
+        retryMaxMs = maxMs;
+    }
+
+    /**
+     * Runs the fleet for {@code durationMs}. Devices share the JVM's keep-alive
+     * pool, which holds {@code http.maxConnections} sockets per host (default
+     * 5); {@link #main} raises it to one per device before any connection.
+     */
+    public void run(long durationMs) throws InterruptedException {
+        ScheduledExecutorService executor = Executors.newScheduledThreadPool(Math.min(devices, 64));
+        Random random = new Random(1);
+        for (int i = 0; i < devices; i++) {
+            VirtualDevice device = new VirtualDevice(i, random.nextLong(), executor);
+            executor.schedule(device::tick, (long) (random.nextDouble() * fixIntervalMs), TimeUnit.MILLISECONDS);
+        }
+
+        long started = System.currentTimeMillis();
+        long lastReport = started;
+        long lastRequests = 0;
+        long lastFixes = 0;
+        long lastBytes = 0;
+        while (System.currentTimeMillis() - started < durationMs) {
+            Thread.sleep(Math.min(REPORT_INTERVAL_MS, durationMs - (System.currentTimeMillis() - started)));
+            long requestsNow = requests.get();
+            long fixesNow = fixesSent.get();
+            long bytesNow = TrackingMetrics.get().counter(TrackingMetrics.BYTES_SENT);
+            TrackingMetrics.Histogram window = windowLatency.getAndSet(new TrackingMetrics.Histogram());
+            long now = System.currentTimeMillis();
+            double windowMs = Math.max(1, now - lastReport);
+            System.out.println(String.format(Locale.US, "[%3ds] %.1f req/s, %.1f fixes/s, %.1f KB/s, latency %s",
+                (now - started) / 1000,
+                (requestsNow - lastRequests) * 1000.0 / windowMs,
+                (fixesNow - lastFixes) * 1000.0 / windowMs,
+                (bytesNow - lastBytes) / 1.024 / windowMs,
+                window.summary()));
+            lastReport = now;
+            lastRequests = requestsNow;
+            lastFixes = fixesNow;
+            lastBytes = bytesNow;
+        }
+
+        executor.shutdownNow();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+
+        double seconds = (System.currentTimeMillis() - started) / 1000.0;
+        long total = requests.get();
+        System.out.println(String.format(Locale.US,
+            "total: %d devices, %d requests (%.1f/s), %d fixes (%.1f/s), %d dropped, error rate %.2f%%",
+            devices, total, total / seconds, fixesSent.get(), fixesSent.get() / seconds,
+            fixesDropped.get(), total > 0 ? failures.get() * 100.0 / total : 0));
+        System.out.println("latency ms: " + totalLatency.summary());
+        synchronized (outcomes) {
+            System.out.println("outcomes: " + outcomes);
+        }
+    }
+
+    private void recordOutcome(UploadResult result, long latencyMs, int fixes) {
+        requests.incrementAndGet();
+        windowLatency.get().record(latencyMs);
+        totalLatency.record(latencyMs);
+        if (result.isSuccess()) {
+            fixesSent.addAndGet(fixes);
+        } else {
+            failures.incrementAndGet();
+        }
+        String key = result.statusCode == UploadResult.NETWORK_ERROR ? "network error" : String.valueOf(result.statusCode);
+        synchronized (outcomes) {
+            AtomicLong count = outcomes.get(key);
+            if (count == null) {
+                outcomes.put(key, count = new AtomicLong());
+            }
+            count.incrementAndGet();
+        }
+    }
+
+    private final class VirtualDevice {
+        private final String token;
+        private final Random random;
+        private final ScheduledExecutorService executor;
+        private final LocationUploader uploader = new LocationUploader();
+        private final RetryBackoff backoff = new RetryBackoff(retryBaseMs, retryMaxMs);
+        private final CircuitBreaker breaker = new CircuitBreaker(
+            UploadPipeline.BREAKER_FAILURE_THRESHOLD, UploadPipeline.BREAKER_OPEN_MS, UploadPipeline.BREAKER_MAX_OPEN_MS);
+        private final List<LocationFix> queued = new ArrayList<>();
+        private long retryNotBefore = 0;
+        private double latitude;
+        private double longitude;
+
+        VirtualDevice(int id, long seed, ScheduledExecutorService executor) {
+            this.token = "device-" + id;
+            this.random = new Random(seed);
+            this.executor = executor;
+            this.latitude = 52.3 + random.nextDouble() * 0.4;
+            this.longitude = 13.1 + random.nextDouble() * 0.6;
+            uploader.setBinaryFormat(binary);
+        }
+
+        // Runs on the shared pool; ticks of one device never overlap because each schedules the next
+        void tick() {
+            latitude += (random.nextDouble() - 0.5) * 0.002;
+            longitude += (random.nextDouble() - 0.5) * 0.002;
+            queued.add(new LocationFix(System.currentTimeMillis(), latitude, longitude,
+                4f + random.nextFloat() * 10f, random.nextFloat() * 15f, random.nextFloat() * 360f, "gps"));
+            if (queued.size() > MAX_QUEUED_PER_DEVICE) {
+                queued.remove(0);
+                fixesDropped.incrementAndGet();
+            }
+
+            long now = System.currentTimeMillis();
+            if (queued.size() >= batchSize && now >= retryNotBefore && breaker.allowRequest(now)) {
+                upload(now);
+            }
+
+            long jitter = (long) (fixIntervalMs * INTERVAL_JITTER * (2 * random.nextDouble() - 1));
+            if (!executor.isShutdown()) {
+                executor.schedule(this::tick, fixIntervalMs + jitter, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        private void upload(long now) {
+            List<LocationFix> batch = new ArrayList<>(queued);
+            long startNs = System.nanoTime();
+            UploadResult result = uploader.upload(endpoint, token, batch, batchSize > 1);
+            recordOutcome(result, (System.nanoTime() - startNs) / 1_000_000, batch.size());
+
+            if (result.isSuccess() || !result.isRetryable()) {
+                queued.subList(0, batch.size()).clear();
+                backoff.reset();
+                breaker.onSuccess();
+                retryNotBefore = 0;
+                return;
+            }
+            breaker.onFailure(now);
+            long delayMs = result.retryAfterMs > 0 ? result.retryAfterMs : backoff.nextDelayMs();
+            retryNotBefore = now + delayMs;
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length < 3) {
+            System.err.println("usage: FleetLoadGenerator <endpoint> <devices> <seconds>"
+                + " [fixIntervalSeconds=5] [batchSize=1] [json|binary]");
+            return;
+        }
+        int devices = Integer.parseInt(args[1]);
+        // One pooled keep-alive socket per device, as each phone would hold its own. Process-wide,
+        // and read when the first connection is made, so only this entry point sets it
+        System.setProperty("http.maxConnections", String.valueOf(devices));
+        FleetLoadGenerator generator = new FleetLoadGenerator(
+            args[0],
+            devices,
+            (long) (Double.parseDouble(args.length > 3 ? args[3] : "5") * 1000),
+            args.length > 4 ? Integer.parseInt(args[4]) : 1,
+            args.length > 5 && "binary".equals(args[5])
+        );
+        generator.run(Long.parseLong(args[2]) * 1000);
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class LocationUploaderTest {
+
+    @Test
+    public void binaryRejectionOnlyAffectsTheEndpointThatRejected() throws Exception {
+        try (StandInIngestServer jsonOnly = new StandInIngestServer();
+             StandInIngestServer binaryOk = new StandInIngestServer()) {
+            jsonOnly.setStatusCode(415);
+            LocationUploader uploader = new LocationUploader();
+            uploader.setBinaryFormat(true);
+
+            // Refused in binary, retried as JSON, still refused
+            assertFalse(uploader.upload(jsonOnly.endpoint(), "", fixes(), true).isSuccess());
+            assertEquals(2, jsonOnly.requests());
+            assertTrue(jsonOnly.lastContentType().startsWith("application/json"));
+
+            // A sibling, as a profile's pipeline would use, still sends binary elsewhere
+            assertTrue(uploader.sibling().upload(binaryOk.endpoint(), "", fixes(), true).isSuccess());
+            assertEquals(1, binaryOk.requests());
+            assertEquals(TrajectoryCodec.CONTENT_TYPE, binaryOk.lastContentType());
+
+            // And the refusing endpoint is not asked to take binary again
+            uploader.upload(jsonOnly.endpoint(), "", fixes(), true);
+            assertEquals(3, jsonOnly.requests());
+        }
+    }
+
+    @Test
+    public void aRepeatedBatchKeyIsADuplicate() throws Exception {
+        try (StandInIngestServer server = new StandInIngestServer()) {
+            LocationUploader uploader = new LocationUploader();
+            assertTrue(uploader.upload(server.endpoint(), "", fixes(), true, "outbox-0-19").isSuccess());
+            // A retry or the other hedge leg of the same batch
+            assertTrue(uploader.sibling().upload(server.endpoint(), "", fixes(), true, "outbox-0-19").isSuccess());
+            assertEquals(1, server.duplicates());
+
+            uploader.upload(server.endpoint(), "", fixes(), true, "outbox-20-39");
+            uploader.upload(server.endpoint(), "", fixes(), true);
+            assertEquals(1, server.duplicates());
+        }
+    }
+
+    private static List<LocationFix> fixes() {
+        List<LocationFix> fixes = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            fixes.add(new LocationFix(1767250800000L + i * 60_000L, 52.52 + i * 1e-4, 13.405, 8f, 1.5f, 90f, "gps"));
+        }
+        return fixes;
+    }
+}
@@ -0,0 +1,211 @@
+package com.example.app;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Minimal in-process HTTP/1.1 ingest server for simulations: accepts any
+ * POST on a keep-alive connection, counts requests and body bytes, and
+ * answers {@code statusCode}, optionally after a delay. Bodies may be sized by Content-Length or
+ * chunked, like the real uploader and {@link LiveStreamer} send them.
+ * A request repeating the Idempotency-Key of one already accepted is
+ * answered the same way but counted as a duplicate, as the ingest server
+ * drops it.
+ */
+public class StandInIngestServer implements AutoCloseable {
+    private final ServerSocket serverSocket;
+    private final Thread acceptThread;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong bodyBytes = new AtomicLong();
+    private final AtomicLong connections = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final Set<String> acceptedKeys = ConcurrentHashMap.newKeySet();
+    private volatile int statusCode = 200;
+    private volatile long responseDelayMs = 0;
+    private volatile String lastContentType;
+
+    public StandInIngestServer() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        acceptThread = new Thread(this::acceptLoop, "StandInIngestServer");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    public String endpoint() {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort() + "/";
+    }
+
+    /** Status returned to every following request, e.g. 503 to simulate a backend outage. */
+    public void setStatusCode(int statusCode) {
+        this.statusCode = statusCode;
+    }
+
+    /** Holds every following response back this long, e.g. to simulate an overloaded backend. */
+    public void setResponseDelayMs(long responseDelayMs) {
+        this.responseDelayMs = responseDelayMs;
+    }
+
+    public long requests() {
+        return requests.get();
+    }
+
+    public long bodyBytes() {
+        return bodyBytes.get();
+    }
+
+    public long connections() {
+        return connections.get();
+    }
+
+    /** Accepted requests whose batch had already been accepted, e.g. the slower leg of a hedge. */
+    public long duplicates() {
+        return duplicates.get();
+    }
+
+    /** Content-Type of the most recent request, or null before the first. */
+    public String lastContentType() {
+        return lastContentType;
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                connections.incrementAndGet();
+                Thread handler = new Thread(() -> serve(socket), "StandInIngestConnection");
+                handler.setDaemon(true);
+                handler.start();
+            } catch (IOException e) {
+                return; // closed
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket s = socket) {
+            InputStream in = new BufferedInputStream(s.getInputStream());
+            OutputStream out = s.getOutputStream();
+            String line;
+            while ((line = readLine(in)) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                long contentLength = 0;
+                boolean chunked = false;
+                String contentType = null;
+                String idempotencyKey = null;
+                while ((line = readLine(in)) != null && !line.isEmpty()) {
+                    String header = line.toLowerCase(Locale.US);
+                    if (header.startsWith("content-length:")) {
+                        contentLength = Long.parseLong(header.substring(15).trim());
+                    } else if (header.startsWith("transfer-encoding:") && header.contains("chunked")) {
+                        chunked = true;
+                    } else if (header.startsWith("content-type:")) {
+                        contentType = line.substring(13).trim();
+                    } else if (header.startsWith("idempotency-key:")) {
+                        idempotencyKey = line.substring(16).trim();
+                    }
+                }
+                if (line == null) {
+                    return;
+                }
+
+                long read = chunked ? skipChunked(in) : skip(in, contentLength);
+                lastContentType = contentType;
+                requests.incrementAndGet();
+                bodyBytes.addAndGet(read);
+
+                int status = statusCode;
+                if (idempotencyKey != null && status >= 200 && status < 300 && !acceptedKeys.add(idempotencyKey)) {
+                    duplicates.incrementAndGet();
+                }
+
+                long delayMs = responseDelayMs;
+                if (delayMs > 0) {
+                    try {
+                        Thread.sleep(delayMs);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+
+                // One write, so Nagle does not hold the body back behind the headers
+                String body = "{\"message\":\"ok\"}";
+                String response = "HTTP/1.1 " + status + " Stand-in\r\n"
+                    + "Content-Type: application/json\r\n"
+                    + "Content-Length: " + body.length() + "\r\n"
+                    + "Connection: keep-alive\r\n\r\n"
+                    + body;
+                out.write(response.getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+            }
+        } catch (IOException | NumberFormatException e) {
+            // Client went away or sent something we don't understand; drop the connection
+        }
+    }
+
+    private static long skipChunked(InputStream in) throws IOException {
+        long total = 0;
+        String sizeLine;
+        while ((sizeLine = readLine(in)) != null) {
+            int semicolon = sizeLine.indexOf(';');
+            long size = Long.parseLong((semicolon >= 0 ? sizeLine.substring(0, semicolon) : sizeLine).trim(), 16);
+            if (size == 0) {
+                readLine(in); // blank line after the last chunk (no trailers expected)
+                return total;
+            }
+            total += skip(in, size);
+            readLine(in);
+        }
+        throw new IOException("Truncated chunked body");
+    }
+
+    private static long skip(InputStream in, long count) throws IOException {
+        long remaining = count;
+        while (remaining > 0) {
+            long skipped = in.skip(remaining);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new IOException("Truncated body");
+                }
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+        return count;
+    }
+
+    // Reads one CRLF-terminated line; null at end of stream
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+        int b;
+        while ((b = in.read()) >= 0) {
+            if (b == '\n') {
+                int length = line.size();
+                byte[] bytes = line.toByteArray();
+                if (length > 0 && bytes[length - 1] == '\r') {
+                    length--;
+                }
+                return new String(bytes, 0, length, StandardCharsets.US_ASCII);
+            }
+            line.write(b);
+        }
+        return line.size() > 0 ? line.toString("US-ASCII") : null;
+    }
+}
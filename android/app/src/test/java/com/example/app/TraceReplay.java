@@ -0,0 +1,547 @@
+package com.example.app;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Replays a recorded trace through the tracking policy on a virtual clock,
+ * so scheduling and upload changes can be compared without driving around.
+ *
+ * Each alarm cycle is modelled the way {@link LocationForegroundService}
+ * runs it: GPS and network are requested together, a network fix opens the
+ * selection window, a fix within the accuracy target ends the cycle, GPS is
+ * dropped after the sky check during an outage and the cycle times out if
+ * nothing arrives. That cycle model stands in for the service, which
+ * needs Android's LocationManager, AlarmManager and PowerManager.
+ *
+ * The real {@link AdaptiveInterval} and {@link TrajectorySimplifier} take
+ * each fix, and the real {@link UploadPipeline} with its
+ * {@link LocationOutbox}, {@link FlushPolicy}, backoff and breaker delivers
+ * them: the pipeline runs on the replay's clock and executor, so its
+ * scheduled drains and retries fire at virtual times. Uploads go over HTTP
+ * to the given endpoint, normally a {@link StandInIngestServer}; during an
+ * outage they fail as if there were no network.
+ *
+ * A development tool kept with the tests, not shipped in the app. Run with
+ * the trace file (outbox records or GPX) and number of days:
+ * {@code TraceReplay trace.gpx 3}. Prints one {@link DayReport} per day.
+ */
+public class TraceReplay {
+    private static final long DAY_MS = 24 * 60 * 60 * 1000L;
+    private static final float GPS_ACCURACY_M = 5f;
+    private static final float NETWORK_ACCURACY_M = 40f;
+    private static final float MOVING_SPEED_MPS = 0.5f;
+
+    /** Totals for one simulated day. */
+    public static final class DayReport {
+        public final int day;
+        long cycles;
+        long fixes;
+        long wakeLockMs;
+        long gpsOnMs;
+        long uploads;
+        long failedUploads;
+        long fixesUploaded;
+        long bytesSent;
+        long queuedAtEnd;
+        final List<Long> deliveryLatenciesMs = new ArrayList<>();
+
+        DayReport(int day) {
+            this.day = day;
+        }
+
+        public long percentileLatencyMs(double p) {
+            if (deliveryLatenciesMs.isEmpty()) {
+                return 0;
+            }
+            List<Long> sorted = new ArrayList<>(deliveryLatenciesMs);
+            Collections.sort(sorted);
+            return sorted.get((int) Math.min(sorted.size() - 1, Math.floor(p * sorted.size())));
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                "day %d: %d cycles, %d fixes, wake lock %ds, GPS on %ds, %d uploads (%d failed), "
+                    + "%d fixes / %d B sent, delivery latency p50 %ds p90 %ds max %ds",
+                day, cycles, fixes, wakeLockMs / 1000, gpsOnMs / 1000, uploads, failedUploads,
+                fixesUploaded, bytesSent, percentileLatencyMs(0.5) / 1000,
+                percentileLatencyMs(0.9) / 1000, percentileLatencyMs(1.0) / 1000)
+                + (queuedAtEnd > 0 ? ", " + queuedAtEnd + " still queued" : "");
+        }
+    }
+
+    private final List<LocationFix> trace;
+    private final long start;
+    private final List<long[]> outages = new ArrayList<>(); // [from, to) offsets from the trace start
+    private long gpsTtffMs = 25 * 1000;
+    private long networkTtffMs = 3 * 1000;
+    private double ttffJitter = 0.5;
+    private long cycleTimeoutMs = TtffHistory.MAX_TIMEOUT_MS;
+    private long minIntervalMs = LocationForegroundService.DEFAULT_MIN_INTERVAL_MS;
+    private long maxIntervalMs = LocationForegroundService.DEFAULT_MAX_INTERVAL_MS;
+    private float distanceTargetMeters = LocationForegroundService.DEFAULT_DISTANCE_TARGET_M;
+    private float accuracyTargetMeters = LocationForegroundService.DEFAULT_ACCURACY_TARGET_M;
+    private boolean motionTrigger = true;
+    private FlushPolicy flushPolicy = FlushPolicy.immediate();
+    private double simplifyToleranceMeters = 0;
+    private long heartbeatMs = 15 * 60 * 1000;
+    private long seed = 1;
+
+    // Per-run state
+    private Random random;
+    private VirtualClock clock;
+    private VirtualExecutor executor;
+    private final List<DayReport> reports = new ArrayList<>();
+
+    public TraceReplay(List<LocationFix> trace) {
+        if (trace.isEmpty()) {
+            throw new IllegalArgumentException("Empty trace");
+        }
+        this.trace = trace;
+        this.start = trace.get(0).time;
+    }
+
+    /** Median time to first fix per provider; each cycle draws within +/- {@code jitter} of it. */
+    public void setTtff(long gpsMs, long networkMs, double jitter) {
+        gpsTtffMs = gpsMs;
+        networkTtffMs = networkMs;
+        ttffJitter = jitter;
+    }
+
+    public void setCycleTimeoutMs(long cycleTimeoutMs) {
+        this.cycleTimeoutMs = cycleTimeoutMs;
+    }
+
+    /** No sky and no signal (tunnel, car park) from {@code fromMs} to {@code toMs} after the trace start. */
+    public void addOutage(long fromMs, long toMs) {
+        outages.add(new long[] { fromMs, toMs });
+    }
+
+    public void setInterval(long minIntervalMs, long maxIntervalMs, float distanceTargetMeters) {
+        this.minIntervalMs = minIntervalMs;
+        this.maxIntervalMs = maxIntervalMs;
+        this.distanceTargetMeters = distanceTargetMeters;
+    }
+
+    public void setAccuracyTargetMeters(float accuracyTargetMeters) {
+        this.accuracyTargetMeters = accuracyTargetMeters;
+    }
+
+    public void setMotionTrigger(boolean enabled) {
+        motionTrigger = enabled;
+    }
+
+    public void setFlushPolicy(FlushPolicy flushPolicy) {
+        this.flushPolicy = flushPolicy;
+    }
+
+    /** 0 disables simplification, as in the service. */
+    public void setSimplifier(double toleranceMeters, long heartbeatMs) {
+        this.simplifyToleranceMeters = toleranceMeters;
+        this.heartbeatMs = heartbeatMs;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public List<DayReport> run(String endpoint, int days) throws IOException {
+        random = new Random(seed);
+        clock = new VirtualClock(start);
+        executor = new VirtualExecutor(clock);
+        reports.clear();
+        for (int d = 0; d < days; d++) {
+            reports.add(new DayReport(d + 1));
+        }
+
+        File dir = Files.createTempDirectory("trace-replay").toFile();
+        LocationOutbox outbox = new LocationOutbox(dir, Integer.MAX_VALUE);
+        UploadPipeline pipeline = new UploadPipeline(outbox, new ReplayUploader(), endpoint, executor, clock);
+        pipeline.setFlushPolicy(flushPolicy);
+        try {
+            replay(pipeline, days);
+            dayOf(clock.now).queuedAtEnd = outbox.size();
+        } finally {
+            pipeline.shutdown();
+            delete(dir);
+        }
+        return reports;
+    }
+
+    private void replay(UploadPipeline pipeline, int days) {
+
+        AdaptiveInterval interval = new AdaptiveInterval(minIntervalMs, maxIntervalMs, distanceTargetMeters);
+        TrajectorySimplifier simplifier = simplifyToleranceMeters > 0
+            ? new TrajectorySimplifier(simplifyToleranceMeters, heartbeatMs)
+            : null;
+        long end = start + days * DAY_MS;
+
+        // The service takes a fix as soon as it starts
+        long alarm = start;
+        while (alarm < end) {
+            executor.runUntil(alarm);
+            DayReport day = dayOf(alarm);
+            day.cycles++;
+            LocationFix fix = null;
+
+            boolean outage = inOutage(alarm);
+            long timeoutAt = alarm + cycleTimeoutMs;
+            long gpsAt = outage ? Long.MAX_VALUE : alarm + draw(gpsTtffMs);
+            long networkAt = outage ? Long.MAX_VALUE : alarm + draw(networkTtffMs);
+            long cycleEnd = timeoutAt;
+            long firstAt = Math.min(gpsAt, networkAt);
+            if (firstAt <= timeoutAt) {
+                boolean gpsFirst = gpsAt <= networkAt;
+                float firstAccuracy = gpsFirst ? GPS_ACCURACY_M : NETWORK_ACCURACY_M;
+                long secondAt = gpsFirst ? networkAt : gpsAt;
+                float secondAccuracy = gpsFirst ? NETWORK_ACCURACY_M : GPS_ACCURACY_M;
+                long windowEnd = Math.min(firstAt + LocationForegroundService.FIX_SELECTION_WINDOW_MS, timeoutAt);
+
+                fix = fixAt(firstAt, firstAccuracy, gpsFirst ? "gps" : "network");
+                if (firstAccuracy <= accuracyTargetMeters) {
+                    cycleEnd = firstAt;
+                } else if (secondAt <= windowEnd && secondAccuracy < firstAccuracy) {
+                    // A better provider beat the selection window
+                    fix = fixAt(secondAt, secondAccuracy, gpsFirst ? "network" : "gps");
+                    cycleEnd = secondAccuracy <= accuracyTargetMeters ? secondAt : windowEnd;
+                } else {
+                    cycleEnd = windowEnd;
+                }
+            }
+
+            day.wakeLockMs += cycleEnd - alarm;
+            day.gpsOnMs += outage
+                ? Math.min(LocationForegroundService.SKY_CHECK_MS, cycleEnd - alarm)
+                : cycleEnd - alarm;
+
+            executor.runUntil(cycleEnd);
+            if (fix != null) {
+                day.fixes++;
+                interval.onFix(fix);
+                if (simplifier == null || simplifier.accept(fix)) {
+                    pipeline.enqueue(fix);
+                }
+            }
+
+            long next = cycleEnd + interval.nextIntervalMs();
+            if (motionTrigger && interval.isStationary()) {
+                long moved = firstMotionBetween(cycleEnd, next);
+                if (moved >= 0) {
+                    interval.onMotion();
+                    next = moved + interval.nextIntervalMs();
+                }
+            }
+
+            alarm = next;
+        }
+        // Drains and retries due before the end still run; anything left is reported as queued
+        executor.runUntil(end - 1);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * The real uploader, except that an outage looks like no network and
+     * each request, and the delay of each fix it delivers, is counted.
+     */
+    private final class ReplayUploader extends LocationUploader {
+        @Override
+        public UploadResult upload(String endpoint, String accessToken, List<LocationFix> fixes, boolean batch,
+                                   String batchKey, int connectTimeoutMs) {
+            DayReport day = dayOf(clock.now);
+            day.uploads++;
+            if (inOutage(clock.now)) {
+                day.failedUploads++;
+                return UploadResult.networkError();
+            }
+
+            TrackingMetrics metrics = TrackingMetrics.get();
+            long bytesBefore = metrics.counter(TrackingMetrics.BYTES_SENT);
+            UploadResult result = super.upload(endpoint, accessToken, fixes, batch, batchKey, connectTimeoutMs);
+            day.bytesSent += metrics.counter(TrackingMetrics.BYTES_SENT) - bytesBefore;
+            if (!result.isSuccess()) {
+                day.failedUploads++;
+                return result;
+            }
+            day.fixesUploaded += fixes.size();
+            for (LocationFix fix : fixes) {
+                day.deliveryLatenciesMs.add(clock.now - fix.time);
+            }
+            return result;
+        }
+    }
+
+    /** Wall clock and elapsed realtime in one; only the replay moves it. */
+    private static final class VirtualClock implements UploadPipeline.Clock {
+        long now;
+
+        VirtualClock(long now) {
+            this.now = now;
+        }
+
+        @Override
+        public long elapsedRealtime() {
+            return now;
+        }
+
+        @Override
+        public long currentTimeMillis() {
+            return now;
+        }
+    }
+
+    /**
+     * Holds the pipeline's tasks until the replay's clock reaches them, then
+     * runs them on the replay thread in time order. No thread is ever started.
+     */
+    private static final class VirtualExecutor extends ScheduledThreadPoolExecutor {
+        private final VirtualClock clock;
+        private final PriorityQueue<VirtualTask> tasks = new PriorityQueue<>();
+        private long sequence;
+
+        VirtualExecutor(VirtualClock clock) {
+            super(1);
+            this.clock = clock;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            schedule(command, 0, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            VirtualTask task = new VirtualTask(clock.now + unit.toMillis(delay), sequence++, command);
+            tasks.add(task);
+            return task;
+        }
+
+        void runUntil(long time) {
+            while (!tasks.isEmpty() && tasks.peek().at <= time) {
+                VirtualTask task = tasks.poll();
+                if (!task.isCancelled()) {
+                    clock.now = Math.max(clock.now, task.at);
+                    task.run();
+                }
+            }
+            clock.now = Math.max(clock.now, time);
+        }
+
+        private final class VirtualTask implements ScheduledFuture<Object> {
+            final long at;
+            final long order;
+            final Runnable command;
+            boolean cancelled;
+            boolean done;
+
+            VirtualTask(long at, long order, Runnable command) {
+                this.at = at;
+                this.order = order;
+                this.command = command;
+            }
+
+            void run() {
+                done = true;
+                command.run();
+            }
+
+            @Override
+            public long getDelay(TimeUnit unit) {
+                return unit.convert(at - clock.now, TimeUnit.MILLISECONDS);
+            }
+
+            @Override
+            public int compareTo(Delayed other) {
+                VirtualTask task = (VirtualTask) other;
+                return at != task.at ? Long.compare(at, task.at) : Long.compare(order, task.order);
+            }
+
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                if (done) {
+                    return false;
+                }
+                cancelled = true;
+                done = true;
+                return true;
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return cancelled;
+            }
+
+            @Override
+            public boolean isDone() {
+                return done;
+            }
+
+            @Override
+            public Object get() {
+                return null;
+            }
+
+            @Override
+            public Object get(long timeout, TimeUnit unit) {
+                return null;
+            }
+        }
+    }
+
+    private DayReport dayOf(long time) {
+        int index = (int) ((time - start) / DAY_MS);
+        return reports.get(Math.max(0, Math.min(reports.size() - 1, index)));
+    }
+
+    private long draw(long medianMs) {
+        return (long) (medianMs * (1 - ttffJitter + 2 * ttffJitter * random.nextDouble()));
+    }
+
+    private boolean inOutage(long time) {
+        long offset = time - start;
+        for (long[] outage : outages) {
+            if (offset >= outage[0] && offset < outage[1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Earliest time in [from, to) at which the trace is moving, or -1
+    private long firstMotionBetween(long from, long to) {
+        for (int i = segmentAt(from); i + 1 < trace.size() && trace.get(i).time < to; i++) {
+            if (segmentSpeed(i) >= MOVING_SPEED_MPS) {
+                return Math.max(from, trace.get(i).time);
+            }
+        }
+        return -1;
+    }
+
+    // Position interpolated along the trace; before and after it the device is parked
+    private LocationFix fixAt(long time, float accuracy, String provider) {
+        int i = segmentAt(time);
+        LocationFix a = trace.get(i);
+        if (i + 1 >= trace.size() || time <= a.time) {
+            return new LocationFix(time, a.latitude, a.longitude, accuracy, 0f, -1f, provider);
+        }
+        LocationFix b = trace.get(i + 1);
+        double f = (double) (time - a.time) / (b.time - a.time);
+        return new LocationFix(time,
+            a.latitude + (b.latitude - a.latitude) * f,
+            a.longitude + (b.longitude - a.longitude) * f,
+            accuracy, segmentSpeed(i), -1f, provider);
+    }
+
+    private float segmentSpeed(int i) {
+        LocationFix a = trace.get(i);
+        LocationFix b = trace.get(i + 1);
+        long dtMs = b.time - a.time;
+        return dtMs > 0 ? (float) (AdaptiveInterval.distanceMeters(a, b) * 1000 / dtMs) : 0f;
+    }
+
+    // Index of the last trace point at or before time (0 if before the trace)
+    private int segmentAt(long time) {
+        int lo = 0;
+        int hi = trace.size() - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (trace.get(mid).time <= time) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    /** Reads outbox records (one {@link LocationFix#toRecord()} per line) or GPX track points. */
+    public static List<LocationFix> load(File file) throws IOException {
+        StringBuilder text = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                text.append(line).append('\n');
+            }
+        }
+
+        List<LocationFix> fixes = new ArrayList<>();
+        if (text.indexOf("<trkpt") >= 0) {
+            Pattern trkpt = Pattern.compile(
+                "<trkpt[^>]*?lat=\"([-0-9.]+)\"[^>]*?lon=\"([-0-9.]+)\"[^>]*>.*?<time>([^<]+)</time>",
+                Pattern.DOTALL);
+            SimpleDateFormat iso = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss", Locale.US);
+            iso.setTimeZone(TimeZone.getTimeZone("UTC"));
+            Matcher m = trkpt.matcher(text);
+            while (m.find()) {
+                try {
+                    fixes.add(new LocationFix(iso.parse(m.group(3)).getTime(),
+                        Double.parseDouble(m.group(1)), Double.parseDouble(m.group(2)),
+                        -1f, -1f, -1f, "gps"));
+                } catch (ParseException | NumberFormatException e) {
+                    // skip malformed points
+                }
+            }
+        } else {
+            for (String line : text.toString().split("\n")) {
+                LocationFix fix = LocationFix.fromRecord(line.trim());
+                if (fix != null) {
+                    fixes.add(fix);
+                }
+            }
+        }
+        return fixes;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: TraceReplay <trace.csv|trace.gpx> [days] [endpoint]");
+            return;
+        }
+        TraceReplay replay = new TraceReplay(load(new File(args[0])));
+        int days = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+
+        if (args.length > 2) {
+            for (DayReport report : replay.run(args[2], days)) {
+                System.out.println(report);
+            }
+            return;
+        }
+        try (StandInIngestServer server = new StandInIngestServer()) {
+            for (DayReport report : replay.run(server.endpoint(), days)) {
+                System.out.println(report);
+            }
+            System.out.println("stand-in server: " + server.requests() + " requests over "
+                + server.connections() + " connections, " + server.bodyBytes() + " B");
+        }
+    }
+}
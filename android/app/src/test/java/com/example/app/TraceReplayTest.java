@@ -0,0 +1,75 @@
+package com.example.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TraceReplayTest {
+    private static final long START = 1767250800000L;
+    private static final long MINUTE = 60 * 1000L;
+
+    private StandInIngestServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StandInIngestServer();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+    }
+
+    @Test
+    public void everyFixIsDelivered() throws Exception {
+        TraceReplay.DayReport day = new TraceReplay(commute()).run(server.endpoint(), 1).get(0);
+        assertTrue(day.fixes > 0);
+        assertEquals(day.fixes, day.fixesUploaded);
+        assertEquals(0, day.failedUploads);
+        assertEquals(0, day.queuedAtEnd);
+        assertEquals(day.uploads, server.requests());
+    }
+
+    @Test
+    public void outageIsRetriedByThePipelineUntilDelivered() throws Exception {
+        // Fixes taken before the outage come due during it
+        TraceReplay replay = new TraceReplay(commute());
+        replay.setFlushPolicy(new FlushPolicy(50, 40 * MINUTE, 0));
+        replay.addOutage(30 * MINUTE, 90 * MINUTE);
+        TraceReplay.DayReport day = replay.run(server.endpoint(), 1).get(0);
+        assertTrue(day.failedUploads > 0);
+        assertEquals(day.fixes, day.fixesUploaded + day.queuedAtEnd);
+        // The first fix waits out the whole outage and the backoff after it
+        assertTrue(day.percentileLatencyMs(1.0) >= 90 * MINUTE);
+    }
+
+    @Test
+    public void batchingPolicyCutsRequests() throws Exception {
+        TraceReplay replay = new TraceReplay(commute());
+        // Parked intervals run past half an hour, so only a long delay limit groups fixes
+        replay.setFlushPolicy(new FlushPolicy(20, 4 * 60 * MINUTE, 0));
+        TraceReplay.DayReport day = replay.run(server.endpoint(), 1).get(0);
+        assertTrue(day.uploads * 5 < day.fixes);
+        assertEquals(day.fixes, day.fixesUploaded + day.queuedAtEnd);
+        assertTrue(day.percentileLatencyMs(1.0) <= 4 * 60 * MINUTE);
+    }
+
+    // Parked for an hour, an hour's drive, parked for the rest of the day
+    private static List<LocationFix> commute() {
+        List<LocationFix> trace = new ArrayList<>();
+        double longitude = 13.40;
+        for (long t = 0; t < 24 * 60 * MINUTE; t += 10 * 1000) {
+            if (t >= 60 * MINUTE && t < 120 * MINUTE) {
+                longitude += 0.0002;
+            }
+            trace.add(new LocationFix(START + t, 52.52, longitude, -1f, -1f, -1f, "gps"));
+        }
+        return trace;
+    }
+}
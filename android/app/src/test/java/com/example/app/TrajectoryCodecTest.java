@@ -0,0 +1,139 @@
+package com.example.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TrajectoryCodecTest {
+
+    @Test
+    public void emptyInputRoundTrips() {
+        byte[] encoded = TrajectoryCodec.encode(Collections.<LocationFix>emptyList());
+        assertEquals(3, encoded.length);
+        assertTrue(TrajectoryCodec.decode(encoded).isEmpty());
+    }
+
+    @Test
+    public void singleFixRoundTrips() {
+        LocationFix fix = new LocationFix(1700000000123L, 52.5200066, 13.4049540, 12.3f, 4.56f, 270.5f, "gps");
+        assertRoundTrip(Collections.singletonList(fix));
+    }
+
+    @Test
+    public void negativeDeltasRoundTrip() {
+        // Time going backwards and a track crossing the equator and the prime meridian
+        assertRoundTrip(Arrays.asList(
+            new LocationFix(1700000600000L, 0.0000100, 0.0000100, 5f, 1f, 10f, "gps"),
+            new LocationFix(1700000000000L, -0.0000100, -0.0000100, 5f, 1f, 10f, "gps"),
+            new LocationFix(1699999999999L, -33.8688197, -151.2092955, 5f, 1f, 10f, "gps")
+        ));
+    }
+
+    @Test
+    public void providersAndMissingFieldsRoundTrip() {
+        assertRoundTrip(Arrays.asList(
+            new LocationFix(1000, 1, 1, 3f, -1f, -1f, "gps"),
+            new LocationFix(2000, 1, 1, -1f, 2f, -1f, "network"),
+            new LocationFix(3000, 1, 1, -1f, -1f, 90f, "fused"),
+            new LocationFix(4000, 1, 1, -1f, -1f, -1f, "")
+        ));
+    }
+
+    @Test
+    public void unknownProviderDecodesAsEmpty() {
+        List<LocationFix> decoded = TrajectoryCodec.decode(TrajectoryCodec.encode(Collections.singletonList(
+            new LocationFix(1000, 1, 1, 3f, 0f, 0f, "passive"))));
+        assertEquals("", decoded.get(0).provider);
+    }
+
+    @Test
+    public void maxValuesRoundTrip() {
+        assertRoundTrip(Arrays.asList(
+            new LocationFix(Long.MAX_VALUE, 90, 180, 100000f, 300f, 359.9f, "gps"),
+            new LocationFix(0, -90, -180, 0f, 0f, 0f, "gps"),
+            new LocationFix(Long.MAX_VALUE, 90, 180, 0f, 0f, 0f, "gps")
+        ));
+    }
+
+    @Test
+    public void zigzagCoversExtremes() {
+        for (long n : new long[] { 0, 1, -1, Long.MAX_VALUE, Long.MIN_VALUE }) {
+            assertEquals(n, TrajectoryCodec.unzigzag(TrajectoryCodec.zigzag(n)));
+        }
+    }
+
+    @Test
+    public void manyFixesRoundTrip() {
+        List<LocationFix> fixes = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            fixes.add(new LocationFix(1700000000000L + i * 60000L, 52.52 + i * 1e-4, 13.40 - i * 1e-4,
+                5f + i % 7, i % 30, (i * 13) % 360, i % 2 == 0 ? "gps" : "network"));
+        }
+        assertRoundTrip(fixes);
+    }
+
+    @Test
+    public void rejectsCountLargerThanPayload() {
+        // Claims 2^31 fixes in a handful of bytes
+        assertRejected(new byte[] { 'T', 1, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x08, 0, 0, 0, 0 });
+    }
+
+    @Test
+    public void rejectsNegativeCount() {
+        byte[] negative = new byte[12];
+        negative[0] = 'T';
+        negative[1] = 1;
+        for (int i = 2; i < 11; i++) {
+            negative[i] = (byte) 0xff;
+        }
+        negative[11] = 0x01;
+        assertRejected(negative);
+    }
+
+    @Test
+    public void rejectsTruncatedPayload() {
+        byte[] encoded = TrajectoryCodec.encode(Arrays.asList(
+            new LocationFix(1000, 1, 1, 3f, 2f, 1f, "gps"),
+            new LocationFix(2000, 2, 2, 3f, 2f, 1f, "gps")));
+        assertRejected(Arrays.copyOf(encoded, encoded.length - 1));
+    }
+
+    @Test
+    public void rejectsWrongMagicAndVersion() {
+        assertRejected(new byte[] { 'X', 1, 0 });
+        assertRejected(new byte[] { 'T', 2, 0 });
+        assertRejected(new byte[] { 'T' });
+    }
+
+    private static void assertRoundTrip(List<LocationFix> fixes) {
+        List<LocationFix> decoded = TrajectoryCodec.decode(TrajectoryCodec.encode(fixes));
+        assertEquals(fixes.size(), decoded.size());
+        for (int i = 0; i < fixes.size(); i++) {
+            LocationFix expected = fixes.get(i);
+            LocationFix actual = decoded.get(i);
+            assertEquals(expected.time, actual.time);
+            assertEquals(expected.latitude, actual.latitude, 1e-7);
+            assertEquals(expected.longitude, actual.longitude, 1e-7);
+            assertEquals(expected.accuracy, actual.accuracy, 0.05f);
+            assertEquals(expected.speed, actual.speed, 0.005f);
+            assertEquals(expected.bearing, actual.bearing, 0.05f);
+            assertEquals(expected.provider, actual.provider);
+        }
+    }
+
+    private static void assertRejected(byte[] payload) {
+        try {
+            TrajectoryCodec.decode(payload);
+            fail("Decoded a malformed payload");
+        } catch (IllegalArgumentException expected) {
+            // Corrupt input is refused without sizing anything from it
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TrajectorySimplifierTest {
+    // About 1.11 m per 0.00001 degrees of latitude
+    private static final double STEP = 0.00001;
+
+    @Test
+    public void errorIsMeasuredAgainstInterpolatedPath() {
+        TrajectorySimplifier simplifier = new TrajectorySimplifier(20, 600_000);
+        assertTrue(simplifier.accept(fix(0, 0)));
+        // Parked within tolerance of the last fix, so suppressed
+        assertFalse(simplifier.accept(fix(10_000, 15 * STEP)));
+        assertFalse(simplifier.accept(fix(20_000, 15 * STEP)));
+        assertEquals(0, simplifier.maxErrorMeters(), 0);
+
+        // The server draws a line from the first fix to this one; the parked fixes sit well off it
+        assertTrue(simplifier.accept(fix(30_000, -90 * STEP)));
+        // Worst is the second parked fix: 15 steps north of the line's -60
+        assertEquals(75 * STEP * 111_195, simplifier.maxErrorMeters(), 0.5);
+        assertTrue(simplifier.maxErrorMeters() > 20);
+    }
+
+    @Test
+    public void straightLineHasNoError() {
+        // Constant speed: past the first two, only heartbeats are kept and the rest lie on the line
+        TrajectorySimplifier simplifier = new TrajectorySimplifier(5, 5000);
+        for (int i = 0; i <= 20; i++) {
+            simplifier.accept(fix(i * 1000L, i * 10 * STEP));
+        }
+        assertEquals(5, simplifier.kept());
+        assertEquals(0, simplifier.maxErrorMeters(), 0.01);
+    }
+
+    private static LocationFix fix(long time, double latitude) {
+        return new LocationFix(time, latitude, 13.405, 5f, -1f, -1f, "gps");
+    }
+}
@@ -7,15 +7,164 @@ const PORT = 3000;
 // Enable CORS for all routes
 app.use(cors());
 
-// Middleware to parse JSON payloads
-app.use(express.json());
+// Middleware to parse JSON payloads (gzip/deflate bodies are inflated automatically)
+app.use(express.json({ limit: '5mb' }));
+
+// Compact binary trajectories (see TrajectoryCodec.java for the layout)
+const TRAJECTORY_TYPE = 'application/x-location-trajectory';
+app.use(express.raw({ type: TRAJECTORY_TYPE, limit: '5mb' }));
+
+const PROVIDERS = ['', 'gps', 'network', 'fused'];
+
+// Batch keys already stored (see LocationOutbox.Batch.key). A hedged upload
+// sends the same batch to two endpoints and a retry may resend one the
+// server already stored, so a repeat is acknowledged without storing it
+// again. Oldest keys are forgotten first; a Set iterates in insertion order.
+const MAX_BATCH_KEYS = 100000;
+const storedBatchKeys = new Set();
+
+function isRepeat(key) {
+  if (!key) return false;
+  if (storedBatchKeys.has(key)) return true;
+  storedBatchKeys.add(key);
+  if (storedBatchKeys.size > MAX_BATCH_KEYS) {
+    storedBatchKeys.delete(storedBatchKeys.values().next().value);
+  }
+  return false;
+}
+
+// Uses arithmetic instead of bit ops so millisecond timestamps stay exact
+function decodeTrajectory(buf) {
+  let pos = 0;
+  const readVarint = () => {
+    let result = 0;
+    let scale = 1;
+    for (;;) {
+      if (pos >= buf.length) throw new Error('Truncated varint');
+      const b = buf[pos++];
+      result += (b & 0x7f) * scale;
+      if ((b & 0x80) === 0) return result;
+      scale *= 128;
+    }
+  };
+  const readSigned = () => {
+    const n = readVarint();
+    return n % 2 === 0 ? n / 2 : -(n + 1) / 2;
+  };
+
+  if (buf.length < 2 || buf[0] !== 'T'.charCodeAt(0)) throw new Error('Not a trajectory payload');
+  if (buf[1] !== 1) throw new Error(`Unsupported trajectory version ${buf[1]}`);
+  pos = 2;
+
+  const count = readVarint();
+  const fixes = [];
+  let time = 0;
+  let lat = 0;
+  let lon = 0;
+  for (let i = 0; i < count; i++) {
+    const flags = buf[pos++];
+    time += readSigned();
+    lat += readSigned();
+    lon += readSigned();
+    const fix = {
+      latitude: lat / 1e7,
+      longitude: lon / 1e7,
+      timestamp: new Date(time).toISOString(),
+    };
+    if (flags & 1) fix.accuracy = readVarint() / 10;
+    if (flags & 2) fix.speed = readVarint() / 100;
+    if (flags & 4) fix.bearing = readVarint() / 10;
+    const provider = PROVIDERS[(flags >> 4) & 3];
+    if (provider) fix.provider = provider;
+    fixes.push(fix);
+  }
+  return fixes;
+}
 
 // POST endpoint that logs payload to console
+// Accepts a single fix object, a batched array of fixes or a binary trajectory
 app.post('/', (req, res) => {
   const timestamp = new Date().toLocaleTimeString();
-  console.log(`[${timestamp}] POST request received:`);
-  console.log(req.body);
-  res.json({ message: 'Payload received and logged' });
+  let body = req.body;
+  if (req.is(TRAJECTORY_TYPE)) {
+    try {
+      body = decodeTrajectory(req.body);
+    } catch (e) {
+      console.warn(`[${timestamp}] Bad trajectory payload: ${e.message}`);
+      return res.status(400).json({ message: e.message });
+    }
+    // Report the binary size next to what the same fixes cost as JSON
+    const jsonBytes = Buffer.byteLength(JSON.stringify(body));
+    const per100 = (bytes) => ((bytes / body.length) * 100).toFixed(0);
+    console.log(`[${timestamp}] Binary trajectory: ${req.body.length} B vs ${jsonBytes} B JSON ` +
+      `(per 100 fixes: ${per100(req.body.length)} B vs ${per100(jsonBytes)} B)`);
+  }
+  const fixes = Array.isArray(body) ? body : [body];
+  if (isRepeat(req.get('idempotency-key'))) {
+    console.log(`[${timestamp}] Repeat of batch ${req.get('idempotency-key')} (${fixes.length} fixes) - already stored`);
+    return res.json({ message: 'Batch already stored', received: fixes.length, duplicate: true });
+  }
+  const wireBytes = Number(req.get('content-length')) || 0;
+  const encoding = req.get('content-encoding') || 'identity';
+  console.log(`[${timestamp}] POST request received: ${fixes.length} fix(es), ${wireBytes} B (${encoding}), ${(wireBytes / fixes.length).toFixed(1)} B/fix`);
+  console.log(body);
+  // Trip records computed on the device; a real backend would store these instead of re-segmenting
+  for (const fix of fixes) {
+    if (fix && fix.trip) {
+      const t = fix.trip;
+      const summary = t.event === 'start' ? `from ${t.latitude}, ${t.longitude}`
+        : `${t.distanceMeters} m in ${t.durationSeconds} s, max ${t.maxSpeedMps} m/s, ${t.fixes} fixes`;
+      console.log(`[${timestamp}] Trip ${t.id} ${t.event}: ${summary}`);
+    }
+  }
+  const metrics = req.get('x-tracking-metrics');
+  if (metrics) {
+    try {
+      console.log(`[${timestamp}] Device metrics:`, JSON.parse(metrics));
+    } catch (e) {
+      console.warn(`[${timestamp}] Unparseable metrics header: ${e.message}`);
+    }
+  }
+  res.json({ message: 'Payload received and logged', received: fixes.length });
+});
+
+// Live trip stream: one long-lived chunked POST carrying one JSON fix per line
+// (see LiveStreamer.java). Each line is logged as it arrives with its delay
+// since the fix was taken.
+app.post('/live', (req, res) => {
+  const opened = Date.now();
+  let pending = '';
+  let received = 0;
+  console.log(`[${new Date().toLocaleTimeString()}] Live stream opened`);
+
+  const handleLine = (line) => {
+    if (!line.trim()) return;
+    try {
+      const fix = JSON.parse(line);
+      received++;
+      const delayMs = Date.now() - Date.parse(fix.timestamp);
+      console.log(`[${new Date().toLocaleTimeString()}] Live fix #${received}: ` +
+        `${fix.latitude}, ${fix.longitude} (${delayMs} ms after fix)`);
+    } catch (e) {
+      console.warn(`Bad live line: ${e.message}`);
+    }
+  };
+
+  req.setEncoding('utf8');
+  req.on('data', (chunk) => {
+    pending += chunk;
+    let newline;
+    while ((newline = pending.indexOf('\n')) >= 0) {
+      handleLine(pending.slice(0, newline));
+      pending = pending.slice(newline + 1);
+    }
+  });
+  req.on('end', () => {
+    handleLine(pending);
+    const seconds = ((Date.now() - opened) / 1000).toFixed(0);
+    console.log(`[${new Date().toLocaleTimeString()}] Live stream closed: ${received} fixes in ${seconds} s`);
+    res.json({ message: 'Live stream received', received });
+  });
 });
 
 // Get local IP address
@@ -34,7 +183,25 @@ function getLocalIP() {
 
 // Start the server
 const localIP = getLocalIP();
-app.listen(PORT, '0.0.0.0', () => {
+const server = app.listen(PORT, '0.0.0.0', () => {
   console.log(`Server is running on http://${localIP}:${PORT}`);
   console.log(`Also accessible on http://0.0.0.0:${PORT}`);
 });
+
+// Keep idle sockets open longer than the device's upload interval so the
+// client's pooled keep-alive connection can actually be reused
+server.keepAliveTimeout = 6 * 60 * 1000;
+server.headersTimeout = server.keepAliveTimeout + 1000;
+// Live streams stay open for several minutes before the device rotates them
+server.requestTimeout = 10 * 60 * 1000;
+
+// Count new TCP connections against requests to show handshakes saved
+let connections = 0;
+let requests = 0;
+server.on('connection', () => { connections++; });
+server.on('request', () => {
+  requests++;
+  if (requests % 10 === 0) {
+    console.log(`${requests} requests over ${connections} connections (${requests - connections} handshakes saved)`);
+  }
+});
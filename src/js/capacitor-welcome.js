@@ -62,6 +62,17 @@ window.customElements.define(
           accessToken: accessToken,
         });
         console.log('Native location tracking:', result.message);
+
+        // Throttled, coalesced fix events; none arrive while the app is in the background
+        await LocationTracker.setLocationEventOptions({ throttleMs: 2000, maxBatch: 20 });
+        await LocationTracker.addListener('location', (event) => {
+          const { latitude, longitude } = event.latest;
+          console.log(`Location: ${latitude.toFixed(6)}, ${longitude.toFixed(6)} (${event.fixes.length} fix(es))`);
+        });
+
+        // On-device history, paged; pass nextCursor back for more
+        const day = await LocationTracker.queryHistory({ from: Date.now() - 24 * 60 * 60 * 1000, limit: 500 });
+        console.log(`History: ${day.fixes.length} fix(es) in the last 24h${day.nextCursor !== undefined ? ' (more available)' : ''}`);
       } catch (error) {
         console.error('Failed to start native location tracking:', error);
       }